@@ -0,0 +1,21 @@
+package edu.cg.benchmarks;
+
+import java.util.Arrays;
+
+// The entry point of benchmarks.jar. Takes the usual JMH command line, e.g.
+//   java -jar target/benchmarks.jar ImageProcessorBenchmark -p size=1024x1024
+// and adds the gc profiler unless it is already given, so the allocation rate is reported next to the throughput.
+public class BenchmarksMain {
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		for (int i = 0; i + 1 < args.length; i++)
+			if (args[i].equals("-prof") && args[i + 1].startsWith("gc")) {
+				org.openjdk.jmh.Main.main(args);
+				return;
+			}
+		String[] withGcProfiler = Arrays.copyOf(args, args.length + 2);
+		withGcProfiler[args.length] = "-prof";
+		withGcProfiler[args.length + 1] = "gc";
+		org.openjdk.jmh.Main.main(withGcProfiler);
+	}
+}
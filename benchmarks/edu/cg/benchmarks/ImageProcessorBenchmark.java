@@ -0,0 +1,65 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.ImageProcessor;
+import edu.cg.RowKernels;
+
+// The per pixel filters. The interpolations scale the image to 3/4 of each dimension.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx8g", "--add-modules=jdk.incubator.vector" })
+public class ImageProcessorBenchmark {
+	@Param({ "256x256", "1024x1024", "3840x2160", "7680x4320" })
+	public String size;
+
+	// The row kernels, compared with -p kernels=vector,scalar.
+	@Param({ "vector" })
+	public String kernels;
+
+	private ImageProcessor processor;
+
+	@Setup
+	public void setup() {
+		RowKernels.setVectorized(kernels.equals("vector"));
+		BufferedImage img = SyntheticImages.create(size);
+		processor = new ImageProcessor(SyntheticImages.SILENT, img, SyntheticImages.WEIGHTS,
+				img.getWidth() * 3 / 4, img.getHeight() * 3 / 4);
+	}
+
+	@Benchmark
+	public BufferedImage greyscale() {
+		return processor.greyscale();
+	}
+
+	@Benchmark
+	public BufferedImage gradientMagnitude() {
+		return processor.gradientMagnitude();
+	}
+
+	@Benchmark
+	public BufferedImage nearestNeighbor() {
+		return processor.nearestNeighbor();
+	}
+
+	@Benchmark
+	public BufferedImage bilinear() {
+		return processor.bilinear();
+	}
+}
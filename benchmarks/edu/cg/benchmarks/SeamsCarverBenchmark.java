@@ -0,0 +1,68 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.BasicSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.RowKernels;
+import edu.cg.SeamsCarvingEngine;
+
+// Removes the given number of seams in each direction. A carver carves once, so it is created in the benchmark
+// and the time includes its greyscale and energy setup. carveWithEngine carves through a SeamsCarvingEngine,
+// whose carvers reuse the buffers of the previous invocations (compare the gc.alloc.rate of both).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx8g", "--add-modules=jdk.incubator.vector" })
+public class SeamsCarverBenchmark {
+	@Param({ "256x256", "1024x1024", "3840x2160", "7680x4320" })
+	public String size;
+
+	@Param({ "VERTICAL_HORIZONTAL", "HORIZONTAL_VERTICAL", "INTERMITTENT", "OPTIMAL" })
+	public CarvingScheme scheme;
+
+	@Param({ "32" })
+	public int seams;
+
+	// The row kernels, compared with -p kernels=vector,scalar.
+	@Param({ "vector" })
+	public String kernels;
+
+	private BufferedImage img;
+	private SeamsCarvingEngine engine;
+
+	@Setup
+	public void setup() {
+		RowKernels.setVectorized(kernels.equals("vector"));
+		img = SyntheticImages.create(size);
+		engine = new SeamsCarvingEngine(Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	@Benchmark
+	public BufferedImage carveImage() {
+		BasicSeamsCarver carver = new BasicSeamsCarver(SyntheticImages.SILENT, img,
+				img.getWidth() - seams, img.getHeight() - seams, SyntheticImages.WEIGHTS);
+		return carver.carveImage(scheme);
+	}
+
+	@Benchmark
+	public BufferedImage carveWithEngine() {
+		return engine.resize(SyntheticImages.SILENT, img, img.getWidth() - seams, img.getHeight() - seams,
+				SyntheticImages.WEIGHTS, scheme);
+	}
+}
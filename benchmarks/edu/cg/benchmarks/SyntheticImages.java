@@ -0,0 +1,47 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import edu.cg.Logger;
+import edu.cg.RGBWeights;
+
+// Deterministic test images for the benchmarks: smooth color gradients, a few hard edged blocks and some noise,
+// so the seams have real structure to follow instead of uniform noise.
+public final class SyntheticImages {
+	public static final Logger SILENT = s -> {};
+	public static final RGBWeights WEIGHTS = new RGBWeights(1, 1, 1);
+
+	private SyntheticImages() {
+	}
+
+	// Parses a size given as "<width>x<height>".
+	public static BufferedImage create(String size) {
+		int separator = size.indexOf('x');
+		if (separator < 0)
+			throw new IllegalArgumentException("Image size must be given as <width>x<height>: " + size);
+		return create(Integer.parseInt(size.substring(0, separator)), Integer.parseInt(size.substring(separator + 1)));
+	}
+
+	public static BufferedImage create(int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[width];
+		SplittableRandom random = new SplittableRandom(width * 31L + height);
+		int blockWidth = Math.max(1, width / 7), blockHeight = Math.max(1, height / 5);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int red = x * 255 / width;
+				int green = y * 255 / height;
+				int blue = ((x / blockWidth + y / blockHeight) & 1) == 0 ? 40 : 200;
+				int noise = random.nextInt(32) - 16;
+				row[x] = (clamp(red + noise) << 16) | (clamp(green + noise) << 8) | clamp(blue + noise);
+			}
+			img.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return img;
+	}
+
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+}
@@ -0,0 +1,52 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.AdvancedSeamsCarver;
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+// Enlarges the image by the given number of seams in each direction. Only the two ordered schemes support
+// upscaling.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx8g" })
+public class UpscalingBenchmark {
+	@Param({ "256x256", "1024x1024", "3840x2160", "7680x4320" })
+	public String size;
+
+	@Param({ "VERTICAL_HORIZONTAL", "HORIZONTAL_VERTICAL" })
+	public CarvingScheme scheme;
+
+	@Param({ "32" })
+	public int seams;
+
+	private BufferedImage img;
+
+	@Setup
+	public void setup() {
+		img = SyntheticImages.create(size);
+	}
+
+	@Benchmark
+	public BufferedImage resizeWithSeamCarving() {
+		AdvancedSeamsCarver carver = new AdvancedSeamsCarver(SyntheticImages.SILENT, img,
+				img.getWidth() + seams, img.getHeight() + seams, SyntheticImages.WEIGHTS);
+		return carver.resizeWithSeamCarving(scheme);
+	}
+}
@@ -1,17 +1,53 @@
 package edu.cg;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
+
+import edu.cg.CarverStore.IntArray;
 
 public class AdvancedSeamsCarver extends BasicSeamsCarver {
-	// TODO :  Decide on the fields your AdvancedSeamsCarver should include.
+	// The logger given to the constructor, for the carver of the second direction (the logger of the carver
+	// prefixes the messages).
+	private final Logger baseLogger;
+	// When set, enlarging a dimension by more than half inserts the seams in stages, see resizeDirection.
+	private boolean stagedEnlargement = false;
+	// The pixels of the image enlarged by this carver that are seam pixels, their copies, or copies of the
+	// protected pixels of this carver; computed only when a stage follows.
+	private boolean[] insertedPixels;
+	// The grey values of the image enlarged by this carver, in a buffer of the store of the stage that follows,
+	// or null if none does.
+	private IntArray insertedGrey;
 	
 	public AdvancedSeamsCarver(Logger logger, BufferedImage workingImage,
 			int outWidth, int outHeight, RGBWeights rgbWeights) {
 		super(logger, workingImage, outWidth, outHeight, rgbWeights);
+		baseLogger = logger;
+	}
+	
+	public AdvancedSeamsCarver(Logger logger, BufferedImage workingImage,
+			int outWidth, int outHeight, RGBWeights rgbWeights, CarverStore store) {
+		super(logger, workingImage, outWidth, outHeight, rgbWeights, store);
+		baseLogger = logger;
+	}
+	
+	private AdvancedSeamsCarver(Logger logger, BufferedImage workingImage,
+			int outWidth, int outHeight, RGBWeights rgbWeights, CarverStore store, IntArray greyImgValues) {
+		super(logger, workingImage, outWidth, outHeight, rgbWeights, store, greyImgValues);
+		baseLogger = logger;
 	}
 	
+	public void setStagedEnlargement(boolean stagedEnlargement) {
+		this.stagedEnlargement = stagedEnlargement;
+	}
+
+	// Enlarging a dimension inserts seams: the seams that carving would remove are found on the image, mapped
+	// back to their original pixels, and every one of those pixels is duplicated in a single pass building the
+	// enlarged image. The directions are resized one after the other in the order of the scheme, the first one on
+	// this carver and the second one on a carver of the image the first one leaves.
 	public BufferedImage resizeWithSeamCarving(CarvingScheme carveScheme) {
-		if (Math.abs(this.outWidth - this.inWidth) > this.inWidth / 2 || Math.abs(this.outHeight - this.inHeight) > this.inHeight / 2) {
+		if (this.inWidth - this.outWidth > this.inWidth / 2 || this.inHeight - this.outHeight > this.inHeight / 2
+				|| !stagedEnlargement && (this.outWidth - this.inWidth > this.inWidth / 2
+						|| this.outHeight - this.inHeight > this.inHeight / 2)) {
 			throw new RuntimeException("Can not apply seam carving: too many seams.");
 		}
 		logger.log("Scaling image width to " + this.outWidth + " pixels, and height to " + this.outHeight + " pixels.");
@@ -21,58 +57,163 @@ public class AdvancedSeamsCarver extends BasicSeamsCarver {
 		else if (carveScheme == CarvingScheme.INTERMITTENT){
 			throw new IllegalArgumentException("Intermittent carving is not supported in upscaling.");
 		}
+		else if (carveScheme == CarvingScheme.OPTIMAL){
+			throw new IllegalArgumentException("Optimal order carving is not supported in upscaling.");
+		}
 		else {
-			// TODO: Implement the additional seam carving functionalities that AdvancedSeamsCarver offers.
-			BufferedImage output = duplicateWorkingImage();
-			carveImage(carveScheme);
-			if(carveScheme == CarvingScheme.VERTICAL_HORIZONTAL){
-				duplicateVerticalSeam(output);
-				duplicateHorizontalSeam(output);
-			}
-			else if(carveScheme == CarvingScheme.HORIZONTAL_VERTICAL){
-				duplicateHorizontalSeam(output);
-				duplicateVerticalSeam(output);
-			}
-			return output;
+			boolean verticalFirst = carveScheme == CarvingScheme.VERTICAL_HORIZONTAL;
+			BufferedImage resized = resizeDirection(verticalFirst);
+			if (verticalFirst ? this.outHeight == this.inHeight : this.outWidth == this.inWidth)
+				return resized;
+			AdvancedSeamsCarver second = new AdvancedSeamsCarver(baseLogger, resized, this.outWidth, this.outHeight,
+					rgbWeights, store);
+			copySettingsTo(second);
+			second.stagedEnlargement = stagedEnlargement;
+			second.setProgressListener(progressAfter(Math.abs(verticalFirst ? this.outWidth - this.inWidth
+					: this.outHeight - this.inHeight)));
+			return second.resizeDirection(!verticalFirst);
 		}
 	}
 
+	// Resizes only the width (or only the height) to the output size.
+	// A single stage inserts at most as many seams as the image has pixels in that direction (twice as many
+	// would have to duplicate pixels twice), and the seams of a stage are the cheapest ones, so they stretch the
+	// same low energy regions. With staged enlargement, every stage inserts up to half the size of its image,
+	// and the pixels inserted by the previous stages (the seams and their copies) are protected: their energy is
+	// raised to the maximal one, so the next seams go through the content left untouched first. A stage only
+	// carves its own seams on the image of the previous one, so the total cost grows with the inserted seams and
+	// the target size, whatever the number of stages. Each stage takes its buffers from a store of its own,
+	// released to the pool of the carver store once the stage has built its image.
+	// The pass building the image of a stage also writes the grey values of that image to a buffer of the next
+	// stage, which then does not read its image, and computes its energies once, with the protection. The cost
+	// matrices and the seams are not carried to the next stage: the protection raises the energy of the pixels of
+	// every inserted seam, which cross the whole image, so the costs of the next stage differ everywhere and its
+	// seams are new ones.
+	private BufferedImage resizeDirection(boolean vertical) {
+		int seams = vertical ? this.outWidth - this.inWidth : this.outHeight - this.inHeight;
+		if (seams <= 0) {
+			carveSeams(vertical, -seams);
+			return carvedImage();
+		}
+		int inserted = stagedEnlargement ? Math.min(seams, stageSeams(vertical ? inWidth : inHeight)) : seams;
+		CarverStore stageStore = inserted < seams ? store.fork() : null;
+		try {
+			BufferedImage enlarged = insertSeams(vertical, inserted, null, stageStore);
+			boolean[] protectedPixels = insertedPixels;
+			IntArray grey = insertedGrey;
+			while (inserted < seams) {
+				int count = Math.min(seams - inserted,
+						stageSeams(vertical ? enlarged.getWidth() : enlarged.getHeight()));
+				AdvancedSeamsCarver stage = new AdvancedSeamsCarver(baseLogger, enlarged,
+						enlarged.getWidth() + (vertical ? count : 0), enlarged.getHeight() + (vertical ? 0 : count),
+						rgbWeights, stageStore, grey);
+				copySettingsTo(stage);
+				stage.setProgressListener(progressAfter(inserted));
+				stage.protectPixels(protectedPixels);
+				CarverStore nextStore = inserted + count < seams ? store.fork() : null;
+				try {
+					enlarged = stage.insertSeams(vertical, count, protectedPixels, nextStore);
+				} finally {
+					stageStore.release();
+					stageStore = nextStore;
+				}
+				protectedPixels = stage.insertedPixels;
+				grey = stage.insertedGrey;
+				inserted += count;
+			}
+			return enlarged;
+		} finally {
+			if (stageStore != null)
+				stageStore.release();
+		}
+	}
 
-	private void duplicateVerticalSeam(BufferedImage output) {
-		int nextRGB, temp;
-		Coordinate[] seam;
+	private static int stageSeams(int size) {
+		return Math.max(size / 2, 1);
+	}
 
-		for(int j = 0; j < verticalSeamsCount; j++) {
-			seam = verticalSeamsRecord[j];
+	// Finds count seams and returns the image with the seams inserted. protectedPixels are the pixels of the
+	// image protected from the seams, or null. nextStore is the store of the stage that follows, or null if none
+	// does. The carved image of the seams to insert is not a preview of the enlarged one, so enlarging gives no
+	// preview frames.
+	private BufferedImage insertSeams(boolean vertical, int count, boolean[] protectedPixels, CarverStore nextStore) {
+		logger.log("Inserting " + count + (vertical ? " vertical" : " horizontal") + " seams.");
+		setPreviewListener(null, 0);
+		recordSeamOrigins();
+		carveSeams(vertical, count);
+		boolean[] duplicated = seamPixels(getSeamOrigins());
+		int enlargedPixels = (inWidth + (vertical ? count : 0)) * (inHeight + (vertical ? 0 : count));
+		insertedPixels = nextStore != null ? new boolean[enlargedPixels] : null;
+		insertedGrey = nextStore != null ? nextStore.newIntArray(enlargedPixels) : null;
+		long start = stageStart();
+		BufferedImage enlarged = vertical ? insertVerticalSeams(count, duplicated, protectedPixels)
+				: insertHorizontalSeams(count, duplicated, protectedPixels);
+		imageBuilt(start);
+		return enlarged;
+	}
 
-			for (int i = 0; i < seam.length; i++) {
-				nextRGB = output.getRGB(seam[i].X, seam[i].Y);
-				for (int x = seam[i].X + 1; x < output.getWidth(); x++) {
-					temp = output.getRGB(x, seam[i].Y);
-					output.setRGB(x, seam[i].Y, nextRGB);
-					nextRGB = temp;
+	// Every pixel of a seam is followed by its copy in its row. The seams are disjoint, so every row gets one
+	// copy per seam.
+	private BufferedImage insertVerticalSeams(int count, boolean[] duplicated, boolean[] protectedPixels) {
+		int outWidth = inWidth + count;
+		BufferedImage ans = new BufferedImage(outWidth, inHeight, workingImageType);
+		PixelRaster in = PixelRaster.of(workingImage);
+		PixelRaster out = PixelRaster.of(ans);
+		int[] storedGrey = insertedGrey != null ? storedGreyPixels() : null;
+		for (int y = 0; y < inHeight; y++) {
+			for (int x = 0, outX = 0; x < inWidth; x++) {
+				int i = y * inWidth + x;
+				int rgb = in.getRGB(x, y);
+				int grey = insertedGrey != null ? carverGreyValue(rgb, storedGrey) : 0;
+				markInserted(y * outWidth + outX, duplicated[i] || protectedPixels != null && protectedPixels[i], grey);
+				out.setRGB(outX++, y, rgb);
+				if (duplicated[i]) {
+					markInserted(y * outWidth + outX, true, grey);
+					out.setRGB(outX++, y, rgb);
 				}
 			}
 		}
+		return ans;
 	}
 
-	private void duplicateHorizontalSeam(BufferedImage output) {
-		int nextRGB, temp;
-		Coordinate[] seam;
-
-		for(int j = 0; j < horizontalSeamsCount; j++) {
-			seam = horizontalSeamsRecord[j];
-
-			for (int i = 0; i < seam.length; i++) {
-				nextRGB = output.getRGB(seam[i].X, seam[i].Y);
-				for (int y = seam[i].Y + 1; y < output.getHeight(); y++) {
-					temp = output.getRGB(seam[i].X, y);
-					output.setRGB(seam[i].X, y, nextRGB);
-					nextRGB = temp;
+	// Every pixel of a seam is followed by its copy in its column.
+	private BufferedImage insertHorizontalSeams(int count, boolean[] duplicated, boolean[] protectedPixels) {
+		BufferedImage ans = new BufferedImage(inWidth, inHeight + count, workingImageType);
+		PixelRaster in = PixelRaster.of(workingImage);
+		PixelRaster out = PixelRaster.of(ans);
+		int[] outY = new int[inWidth];
+		int[] storedGrey = insertedGrey != null ? storedGreyPixels() : null;
+		// row by row, each column keeping its own output row, so the image is read and written row-major
+		for (int y = 0; y < inHeight; y++) {
+			for (int x = 0; x < inWidth; x++) {
+				int i = y * inWidth + x;
+				int rgb = in.getRGB(x, y);
+				int grey = insertedGrey != null ? carverGreyValue(rgb, storedGrey) : 0;
+				markInserted(outY[x] * inWidth + x, duplicated[i] || protectedPixels != null && protectedPixels[i],
+						grey);
+				out.setRGB(x, outY[x]++, rgb);
+				if (duplicated[i]) {
+					markInserted(outY[x] * inWidth + x, true, grey);
+					out.setRGB(x, outY[x]++, rgb);
 				}
 			}
 		}
+		return ans;
 	}
 
+	// Records pixel i of the enlarged image for the stage that follows, if one does.
+	private void markInserted(int i, boolean inserted, int grey) {
+		if (insertedPixels != null) {
+			insertedPixels[i] = inserted;
+			insertedGrey.set(i, grey);
+		}
+	}
 
+	private boolean[] seamPixels(List<int[]> seams) {
+		boolean[] pixels = new boolean[inWidth * inHeight];
+		for (int[] seam : seams)
+			for (int origin : seam)
+				pixels[origin] = true;
+		return pixels;
+	}
 }
\ No newline at end of file
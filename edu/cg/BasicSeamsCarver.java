@@ -1,7 +1,19 @@
 package edu.cg;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import edu.cg.CarverMetrics.Stage;
+import edu.cg.CarverStore.ByteArray;
+import edu.cg.CarverStore.DoubleArray;
+import edu.cg.CarverStore.IntArray;
 
 
 public class BasicSeamsCarver extends ImageProcessor {
@@ -10,10 +22,12 @@ public class BasicSeamsCarver extends ImageProcessor {
 	// VERTICAL_HORIZONTAL means vertical seams are removed first.
 	// HORIZONTAL_VERTICAL means horizontal seams are removed first.
 	// INTERMITTENT means seams are removed intermittently : vertical, horizontal, vertical, horizontal etc.
+	// OPTIMAL means seams are removed in the order of minimal total cost, found with the transport map.
 	public static enum CarvingScheme {
 		VERTICAL_HORIZONTAL("Vertical seams first"),
 		HORIZONTAL_VERTICAL("Horizontal seams first"),
-		INTERMITTENT("Intermittent carving");
+		INTERMITTENT("Intermittent carving"),
+		OPTIMAL("Optimal order");
 
 		public final String description;
 
@@ -22,42 +36,322 @@ public class BasicSeamsCarver extends ImageProcessor {
 		}
 	}
 
-	// A simple coordinate class which assists the implementation.
-	protected class Coordinate{
-		public int X;
-		public int Y;
-		public Coordinate(int X, int Y) {
-			this.X = X;
-			this.Y = Y;
-		}
-	}
-
 	// TODO :  Decide on the fields your BasicSeamsCarver should include. Refer to the recitation and homework 
 			// instructions PDF to make an educated decision.
-	public double[][] pixelEnergyMatrix;
-	public Coordinate[][] pixelOrigin;
-	public Coordinate[][] verticalSeamsRecord;
-	public Coordinate[][] horizontalSeamsRecord;
-	public int[][] minimumCoordinates;
-	public int[][] greyImgValues;
+	// All the per pixel buffers are flat and row-major with a row stride of stride: pixel (x, y) of the carved
+	// image lives at index y * stride + x. A pixel origin is the index of the pixel in the working image and a
+	// recorded seam is stored as the indices of its pixels in the row-major layout, where the stride is inWidth
+	// (one per row for vertical seams, one per column for horizontal seams). The back pointers are the
+	// directions (-1, 0 or 1) of the minimal cost neighbour. The buffers are allocated by the carver store,
+	// on the heap or mapped from a file.
+	public DoubleArray pixelEnergyMatrix;
+	public DoubleArray cumulativeCostMatrix;
+	public IntArray pixelOrigin;
+	public int[][] verticalSeamsRecord;
+	public int[][] horizontalSeamsRecord;
+	public ByteArray minimumDirections;
+	public IntArray greyImgValues;
+	final CarverStore store;
+	// The stage timers of the carving, when the logger has metrics, or null.
+	private final CarverMetrics metrics;
 	int carvedHeight;
 	int carvedWidth;
+	int stride;
 	int verticalSeamsCount = 0;
 	int horizontalSeamsCount = 0;
 
+	// When set, the energy and cost matrices are updated after each carved seam only around the seam and in
+	// the cone of cells whose cost changed, instead of being recomputed over the whole carved area.
+	// Both paths produce identical seams.
+	private boolean incrementalUpdates = true;
+	// The direction of the last carved seam if the matrices are still valid up to that seam, null otherwise.
+	private SeamDirection pendingCostsUpdate = null;
+	// The last carved seam, in the current layout of the buffers.
+	private int[] lastSeam;
+
+	// When set, batches of horizontal seams are carved by transposing the buffers once and running the
+	// vertical seams code on the transposed image, so every pass walks the memory row by row. The buffers
+	// are transposed back before carving vertical seams or creating the carved image.
+	private boolean transposedHorizontalCarving = true;
+	// Whether the buffers currently hold the transposed image (stride is then inHeight).
+	private boolean transposed = false;
+	private IntArray transposeScratch;
+
+	// The maximal number of seams removed after a single energy and cost computation. Above 1, the seams are
+	// the greedily extracted disjoint low cost seams of findDisjointVerticalSeams, so the result approximates
+	// the exact carving. Horizontal seams are batched only when carved on transposed buffers.
+	private int seamsBatchSize = 1;
+	// 1 for the pixels of the seams found so far by findDisjointVerticalSeams.
+	private ByteArray takenPixels;
+
+	// When the pyramid factor is above 1, vertical seams are searched on a proxy of the carved grey image
+	// downsampled by that factor with a box filter. Every proxy seam is followed by pyramidFactor seams at
+	// full resolution, each found by a dynamic programming restricted to a band of pyramidBandWidth pixels
+	// around the upsampled proxy seam. Batching does not apply in this mode.
+	private int pyramidFactor = 1;
+	private int pyramidBandWidth = 4;
+	private BasicSeamsCarver proxyCarver;
+	private int[] bandFrom, bandTo;
+	private int bandSeamsLeft;
+	// The proxy is not used below this many proxy columns or rows.
+	private static final int MIN_PROXY_SIZE = 8;
+
+	// Whether the energy matrix still holds the energies computed with the grey values in the constructor, so
+	// the first seam search does not compute them again.
+	private boolean initialEnergies = false;
+
+	// The original pixels of every carved seam, in carving order, once recordSeamOrigins was called. The seams
+	// records hold the seams in the coordinates of the image they were carved from.
+	private List<int[]> seamOrigins;
+
+	// The seam index map of the image, whose first seams replace the search of the seams carved first from the
+	// original image, see useSeamIndexMap.
+	private SeamIndexMap seamIndexMap;
+
+	// The original pixels whose energy is raised by PROTECTED_ENERGY, so the seams go through the other pixels
+	// first, or null. The staged enlargement of AdvancedSeamsCarver protects the pixels it already inserted.
+	private boolean[] protectedPixels;
+	// The energy of a pixel between two pixels of maximal grey difference.
+	static final double PROTECTED_ENERGY = 255 * Math.sqrt(2);
+
+	// The sum of the costs of all the carved seams, measured when each seam was found. It is the quality
+	// metric of the approximate modes: lower is better, the exact carving being the reference.
+	private double carvedSeamsCost = 0;
+
+	// The memory the transport map of the OPTIMAL scheme may use for its intermediate carving states.
+	private long transportMapMemoryBudget = 64L << 20;
+
+	// Cost matrix lines (rows for vertical seams, columns for horizontal seams) at least this long are
+	// computed in parallel, one line after the other. The parallel and serial paths find the same seams.
+	private int parallelThreshold = 1024;
+	private WavefrontExecutor wavefront = new WavefrontExecutor(ForkJoinPool.commonPool());
+
+	// Follows the seams carved by a carver, out of all the seams of its output size.
+	@FunctionalInterface
+	public static interface ProgressListener {
+		public void seamsCarved(int carved, int total);
+	}
+
+	// Called after every carved seam, or null. The seams carved so far, of totalSeams.
+	private ProgressListener progressListener;
+	private int seamsDone = 0;
+	private int totalSeams;
+
+	// Receives the image left by the seams carved so far, while the carving goes on.
+	@FunctionalInterface
+	public static interface PreviewListener {
+		public void preview(BufferedImage frame, int carved, int total);
+	}
+
+	// Given a frame at most every previewIntervalNanos, or null. A frame is rendered off the carving thread, see
+	// preview; previewRendering is set while one is, and the frames due meanwhile are skipped.
+	private PreviewListener previewListener;
+	private long previewIntervalNanos;
+	private long lastPreview;
+	private final AtomicBoolean previewRendering = new AtomicBoolean();
+
+	private static enum SeamDirection {
+		VERTICAL,
+		HORIZONTAL
+	}
+
 	public BasicSeamsCarver(Logger logger, BufferedImage workingImage,
 			int outWidth, int outHeight, RGBWeights rgbWeights) {
+		this(logger, workingImage, outWidth, outHeight, rgbWeights, CarverStore.onHeap());
+	}
+
+	public BasicSeamsCarver(Logger logger, BufferedImage workingImage,
+			int outWidth, int outHeight, RGBWeights rgbWeights, CarverStore store) {
+		this(logger, workingImage, outWidth, outHeight, rgbWeights, store, null);
+	}
+
+	// A carver of an image whose grey values are already known: greyImgValues, a buffer of the store holding the
+	// grey values of the image row by row, so the image is not read again. The energies are then computed by the
+	// first seam search.
+	BasicSeamsCarver(Logger logger, BufferedImage workingImage, int outWidth, int outHeight, RGBWeights rgbWeights,
+			CarverStore store, IntArray greyImgValues) {
 		super((s) -> logger.log("Seam carving: " + s), workingImage, rgbWeights, outWidth, outHeight);
+		this.store = store;
+		metrics = CarverMetrics.of(logger.metrics(), store);
 		carvedWidth = inWidth;
 		carvedHeight = inHeight;
-		verticalSeamsRecord = new Coordinate[ Math.abs(this.outWidth - this.inWidth)][];
-		horizontalSeamsRecord = new Coordinate[ Math.abs(this.outHeight - this.inHeight)][];
+		stride = inWidth;
+		verticalSeamsRecord = new int[ Math.abs(this.outWidth - this.inWidth)][];
+		horizontalSeamsRecord = new int[ Math.abs(this.outHeight - this.inHeight)][];
+		totalSeams = verticalSeamsRecord.length + horizontalSeamsRecord.length;
 
 		initCarvedImg();
-		initGreyImageValues();
+		long start = stageStart();
+		if (greyImgValues == null)
+			initGreyImageValuesAndEnergies();
+		else
+			this.greyImgValues = greyImgValues;
+		stageDone(Stage.GREYSCALE, start);
 		initPixelOriginCoordinates();
+		if (store.getMappedBytes() > 0)
+			this.logger.log("Mapped " + (store.getMappedBytes() >> 20) + " MB of the carver buffers from disk.");
 
 	}
+
+	public void setIncrementalUpdates(boolean incrementalUpdates) {
+		this.incrementalUpdates = incrementalUpdates;
+		pendingCostsUpdate = null;
+	}
+
+	public void setTransposedHorizontalCarving(boolean transposedHorizontalCarving) {
+		this.transposedHorizontalCarving = transposedHorizontalCarving;
+	}
+
+	public void setSeamsBatchSize(int seamsBatchSize) {
+		if (seamsBatchSize < 1)
+			throw new IllegalArgumentException("Seams batch size must be positive.");
+		this.seamsBatchSize = seamsBatchSize;
+	}
+
+	public void setPyramid(int pyramidFactor, int pyramidBandWidth) {
+		if (pyramidFactor < 1 || pyramidBandWidth < 1)
+			throw new IllegalArgumentException("Pyramid factor and band width must be positive.");
+		this.pyramidFactor = pyramidFactor;
+		this.pyramidBandWidth = pyramidBandWidth;
+		proxyCarver = null;
+		bandSeamsLeft = 0;
+	}
+
+	public void setTransportMapMemoryBudget(long transportMapMemoryBudget) {
+		if (transportMapMemoryBudget < TransportMapPlanner.MIN_MEMORY_BUDGET)
+			throw new IllegalArgumentException("The transport map memory budget must be at least "
+					+ TransportMapPlanner.MIN_MEMORY_BUDGET + " bytes.");
+		this.transportMapMemoryBudget = transportMapMemoryBudget;
+	}
+
+	void recordSeamOrigins() {
+		seamOrigins = new ArrayList<>();
+	}
+
+	List<int[]> getSeamOrigins() {
+		return seamOrigins;
+	}
+
+	// Takes the seams carved first from the original image (all the seams of the first direction of the scheme)
+	// from the map instead of searching them, if the map was computed from the pixels of this image with these
+	// weights. Returns whether the map is used. The map only replaces the exact search (no batches, no pyramid),
+	// and the costs of its seams are not part of getCarvedSeamsCost.
+	public boolean useSeamIndexMap(SeamIndexMap map) {
+		boolean matches = map.width == inWidth && map.height == inHeight
+				&& map.sourceChecksum == SeamIndexMap.checksum(workingImage, rgbWeights);
+		seamIndexMap = matches ? map : null;
+		if (!matches)
+			logger.log("The seam index map was not computed from this image, carving all the seams.");
+		return matches;
+	}
+
+	void protectPixels(boolean[] protectedPixels) {
+		this.protectedPixels = protectedPixels;
+		initialEnergies = false;
+		pendingCostsUpdate = null;
+	}
+
+	// The carving checks for the interruption of its thread after every seam, and then throws a
+	// CancellationException, so a carving running in a cancelled task stops at the next seam.
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	// A listener reporting the seams of another carver as carved after the first offset seams of this carver, or
+	// null if this carver has no listener.
+	ProgressListener progressAfter(int offset) {
+		ProgressListener listener = progressListener;
+		int total = totalSeams;
+		return listener == null ? null : (carved, t) -> listener.seamsCarved(offset + carved, total);
+	}
+
+	private void seamsCarved(int count) {
+		seamsDone += count;
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Seam carving was cancelled.");
+		if (progressListener != null)
+			progressListener.seamsCarved(seamsDone, totalSeams);
+		if (previewListener != null && System.nanoTime() - lastPreview >= previewIntervalNanos)
+			preview();
+	}
+
+	// Gives the listener the carved image every intervalMillis, from the first carved seam on, until the
+	// carving is done. The last frame may arrive after the carving returns.
+	public void setPreviewListener(PreviewListener previewListener, long intervalMillis) {
+		if (intervalMillis < 0)
+			throw new IllegalArgumentException("The preview interval can not be negative.");
+		this.previewListener = previewListener;
+		this.previewIntervalNanos = intervalMillis * 1_000_000;
+		this.lastPreview = System.nanoTime() - previewIntervalNanos;
+	}
+
+	// The carving only copies the origins of the carved area, in its current layout; the frame is filled from
+	// the copy by a task of the common pool, which calls the listener there.
+	private void preview() {
+		lastPreview = System.nanoTime();
+		if (!previewRendering.compareAndSet(false, true))
+			return;
+		int rows = carvedHeight, columns = carvedWidth;
+		int[] origins = new int[rows * columns];
+		IntArray copy = IntArray.wrap(origins);
+		for(int y = 0; y < rows; y++)
+			IntArray.copy(pixelOrigin, y * stride, copy, y * columns, columns);
+		boolean wasTransposed = transposed;
+		int carved = seamsDone, total = totalSeams;
+		PreviewListener listener = previewListener;
+		ForkJoinPool.commonPool().execute(() -> {
+			try {
+				BufferedImage frame = wasTransposed ? new BufferedImage(rows, columns, workingImageType)
+						: new BufferedImage(columns, rows, workingImageType);
+				PixelRaster in = PixelRaster.of(workingImage);
+				PixelRaster out = PixelRaster.of(frame);
+				for(int y = 0; y < rows; y++) {
+					for(int x = 0; x < columns; x++) {
+						int origin = origins[y * columns + x];
+						// a row of the transposed layout is a column of the image
+						if (wasTransposed)
+							out.setRGB(y, x, in.getRGB(origin % inWidth, origin / inWidth));
+						else
+							out.setRGB(x, y, in.getRGB(origin % inWidth, origin / inWidth));
+					}
+				}
+				listener.preview(frame, carved, total);
+			} finally {
+				previewRendering.set(false);
+			}
+		});
+	}
+
+	// The start of a stage timed by stageDone, when the carver has metrics.
+	long stageStart() {
+		return metrics == null ? 0 : System.nanoTime();
+	}
+
+	// Records the time since start as the stage and returns the start of the next stage.
+	long stageDone(Stage stage, long start) {
+		return metrics == null ? 0 : metrics.stop(stage, start);
+	}
+
+	// Records the building of the output image, which ends the carving.
+	void imageBuilt(long start) {
+		if (metrics == null)
+			return;
+		metrics.stop(Stage.IMAGE, start);
+		metrics.finished(seamsDone, store);
+	}
+
+	public double getCarvedSeamsCost() {
+		return carvedSeamsCost;
+	}
+
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public void setParallelPool(ForkJoinPool pool) {
+		wavefront = new WavefrontExecutor(pool);
+	}
+
 	public BufferedImage carveImage(CarvingScheme carvingScheme) {
 		int numberOfVerticalSeamsToCarve = Math.abs(this.outWidth - this.inWidth);
 		int numberOfHorizontalSeamsToCarve = Math.abs(this.outHeight - this.inHeight);
@@ -86,6 +380,20 @@ public class BasicSeamsCarver extends ImageProcessor {
 				}
 			}
 		}
+		else if (carvingScheme == CarvingScheme.OPTIMAL){
+			boolean[] verticalOrder = new TransportMapPlanner(this, transportMapMemoryBudget)
+					.plan(numberOfHorizontalSeamsToCarve, numberOfVerticalSeamsToCarve);
+			for (int i = 0; i < verticalOrder.length; ) {
+				int j = i;
+				while (j < verticalOrder.length && verticalOrder[j] == verticalOrder[i])
+					j++;
+				if (verticalOrder[i])
+					carveVerticalSeams(j - i);
+				else
+					carveHorizontalSeams(j - i);
+				i = j;
+			}
+		}
 		return createCarvedImg();
 	}
 
@@ -93,6 +401,8 @@ public class BasicSeamsCarver extends ImageProcessor {
 		int numberOfVerticalSeamsToCarve = Math.abs(this.outWidth - this.inWidth);
 		int numberOfHorizontalSeamsToCarve = Math.abs(this.outHeight - this.inHeight);
 
+		// only the seams of one direction are carved
+		totalSeams = showVerticalSeams ? numberOfVerticalSeamsToCarve : numberOfHorizontalSeamsToCarve;
 		if(showVerticalSeams){
 			carveVerticalSeams(numberOfVerticalSeamsToCarve);
 			return getSeamPaintedImg(seamColorRGB, true);
@@ -104,56 +414,110 @@ public class BasicSeamsCarver extends ImageProcessor {
 	}
 
 	private void initPixelEnergyMatrix() {
-		for (int i = 0; i < carvedWidth; i++) {
-			for (int j = 0; j < carvedHeight; j++) {
-				pixelEnergyMatrix[j][i] = pixelEnergy(j, i);
+		if (initialEnergies) {
+			initialEnergies = false;
+			return;
+		}
+		if (carvedWidth >= parallelThreshold || carvedHeight >= parallelThreshold) {
+			wavefront.forEachCell(carvedHeight, this::initPixelEnergyRow);
+			return;
+		}
+		for (int y = 0; y < carvedHeight; y++) {
+			initPixelEnergyRow(y);
+		}
+	}
+
+	private void initPixelEnergyRow(int y) {
+		pixelEnergies(y, 0, carvedWidth);
+	}
+
+	// Computes the energies of the pixels fromX to toX (exclusive) of a row, with the row kernels when the
+	// buffers are on the heap.
+	private void pixelEnergies(int y, int fromX, int toX) {
+		int[] grey = greyImgValues.heapArray();
+		double[] energies = pixelEnergyMatrix.heapArray();
+		if (grey == null || energies == null) {
+			for (int x = fromX; x < toX; x++) {
+				pixelEnergyMatrix.set(y * stride + x, pixelEnergy(y, x));
 			}
+			return;
 		}
+		int next = (y == carvedHeight - 1 ? y - 1 : y + 1) * stride;
+		RowKernels.get().energies(grey, y * stride, next, fromX, toX, carvedWidth - 1, energies, y * stride);
+		if (protectedPixels != null) {
+			for (int x = fromX; x < toX; x++) {
+				energies[y * stride + x] += protection(y * stride + x);
+			}
+		}
+	}
+
+	private double protection(int i) {
+		return protectedPixels != null && protectedPixels[pixelOrigin.get(i)] ? PROTECTED_ENERGY : 0;
 	}
 
 	private void initCarvedImg() {
-		pixelEnergyMatrix = new double[carvedHeight][carvedWidth];
-		minimumCoordinates = new int[carvedHeight][carvedWidth];
+		pixelEnergyMatrix = store.newDoubleArray(carvedHeight * carvedWidth);
+		cumulativeCostMatrix = store.newDoubleArray(carvedHeight * carvedWidth);
+		minimumDirections = store.newByteArray(carvedHeight * carvedWidth);
 	}
 
 	private void initPixelOriginCoordinates(){
-		pixelOrigin = new Coordinate[inHeight][inWidth];
-		for( int i = 0; i < inWidth; i++) {
-			for (int j = 0; j < inHeight; j++) {
-				pixelOrigin[j][i] = new Coordinate(i, j);
-			}
+		pixelOrigin = store.newIntArray(inHeight * stride);
+		for (int i = 0; i < pixelOrigin.length; i++) {
+			pixelOrigin.set(i, i);
 		}
 	}
 
-	private void initGreyImageValues() {
-		greyImgValues = new int[inHeight][inWidth];
-		BufferedImage greyImg = greyscale();
-		for (int i = 0; i < inWidth; i++) {
-			for (int j = 0; j < inHeight; j++) {
-				greyImgValues[j][i] = new Color(greyImg.getRGB(i, j)).getGreen();
+	// Reads the working image once, writing the grey values of a row and then the energies of the row above
+	// it, which only look at their own row and the row below. The grey values are the green channel of the
+	// greyscale image, so an image type that rounds the grey pixels gives the rounded values.
+	private void initGreyImageValuesAndEnergies() {
+		greyImgValues = store.newIntArray(inHeight * stride);
+		PixelRaster in = PixelRaster.of(workingImage);
+		int[] storedGrey = storedGreyPixels();
+		boolean withEnergies = inWidth > 1 && inHeight > 1;
+		for (int y = 0; y < inHeight; y++) {
+			int row = y * stride;
+			for (int x = 0; x < inWidth; x++) {
+				greyImgValues.set(row + x, carverGreyValue(in.getRGB(x, y), storedGrey));
+			}
+			if (withEnergies && y > 0) {
+				initPixelEnergyRow(y - 1);
 			}
 		}
+		if (withEnergies) {
+			initPixelEnergyRow(inHeight - 1);
+		}
+		initialEnergies = withEnergies;
+	}
+
+	// The grey value of a pixel of the working image, storedGrey being the storedGreyPixels of the image.
+	final int carverGreyValue(int rgb, int[] storedGrey) {
+		int grey = greyValue(rgb);
+		return storedGrey == null ? grey : (storedGrey[grey] >> 8) & 0xFF;
 	}
 
 	private BufferedImage getSeamPaintedImg(int seamColorRGB, Boolean isVertical) {
 		int count = horizontalSeamsCount;
-		Coordinate[][] record = horizontalSeamsRecord;
+		int[][] record = horizontalSeamsRecord;
 		if( isVertical){
 			count = verticalSeamsCount;
 			record = verticalSeamsRecord;
 		}
 
+		long start = stageStart();
 		BufferedImage img = duplicateWorkingImage();
 		for( int i = 0; i < count; i++){
 			paintSeam(img, record[i], seamColorRGB);
 		}
 
+		imageBuilt(start);
 		return img;
 	}
 
-	private void paintSeam(BufferedImage img, Coordinate[] coordinates, int seamColorRGB) {
-		for(int i = 0 ; i < coordinates.length; i++){
-			img.setRGB(coordinates[i].X, coordinates[i].Y, seamColorRGB);
+	private void paintSeam(BufferedImage img, int[] seam, int seamColorRGB) {
+		for(int i = 0 ; i < seam.length; i++){
+			img.setRGB(seam[i] % inWidth, seam[i] / inWidth, seamColorRGB);
 		}
 	}
 
@@ -167,100 +531,698 @@ public class BasicSeamsCarver extends ImageProcessor {
 		if (y == carvedHeight - 1) {
 			j = y - 1;
 		}
-		double dy = Math.pow(Math.abs(greyImgValues[y][i] - greyImgValues[y][x]), 2);
-		double dx = Math.pow(Math.abs(greyImgValues[j][x] - greyImgValues[y][x]), 2);
+		int grey = greyImgValues.get(y * stride + x);
+		double dy = Math.pow(Math.abs(greyImgValues.get(y * stride + i) - grey), 2);
+		double dx = Math.pow(Math.abs(greyImgValues.get(j * stride + x) - grey), 2);
 
-		return Math.sqrt(dx + dy);
+		return Math.sqrt(dx + dy) + protection(y * stride + x);
 	}
 
 
 
 	private void carveHorizontalSeams(int numberOfHorizontalSeamsToCarve) {
+		if (canLoadSeams(numberOfHorizontalSeamsToCarve, false)) {
+			loadHorizontalSeams(numberOfHorizontalSeamsToCarve);
+			return;
+		}
+		if (transposedHorizontalCarving && (transposed || numberOfHorizontalSeamsToCarve > 1)) {
+			if (!transposed)
+				transposeBuffers();
+			for(int carved = 0; carved < numberOfHorizontalSeamsToCarve; ) {
+				for(int[] transposedSeam : carveNextVerticalSeams(Math.min(seamsBatchSize, numberOfHorizontalSeamsToCarve - carved))) {
+					int[] seam = new int[transposedSeam.length];
+					for(int x = 0; x < seam.length; x++)
+						seam[x] = (transposedSeam[x] - x * stride) * inWidth + x;
+					horizontalSeamsRecord[horizontalSeamsCount++] = seam;
+					carved++;
+					seamsCarved(1);
+				}
+			}
+			return;
+		}
 		for(int i = 0; i < numberOfHorizontalSeamsToCarve; i++) {
-			initPixelEnergyMatrix();
-			findHorizontalMinCost();
-			Coordinate[] seam = findHorizontalSeam();
-			horizontalSeamsRecord[horizontalSeamsCount++] = seam.clone();
+			long start = stageStart();
+			if (pendingCostsUpdate == SeamDirection.HORIZONTAL) {
+				updateHorizontalCosts(lastSeam);
+			}
+			else {
+				initPixelEnergyMatrix();
+				start = stageDone(Stage.ENERGY, start);
+				findHorizontalMinCost();
+			}
+			start = stageDone(Stage.COSTS, start);
+			int[] seam = findHorizontalSeam();
+			carvedSeamsCost += cumulativeCostMatrix.get(seam[seam.length - 1]);
+			horizontalSeamsRecord[horizontalSeamsCount++] = seam;
+			start = stageDone(Stage.BACKTRACK, start);
 			carveHorizontalSeam(seam);
 			carvedHeight--;
+			stageDone(Stage.COMPACTION, start);
+			lastSeam = seam;
+			pendingCostsUpdate = incrementalUpdates ? SeamDirection.HORIZONTAL : null;
+			proxyCarver = null;
+			seamsCarved(1);
 		}
 	}
 
 	private void carveVerticalSeams(int numberOfVerticalSeamsToCarve) {
-		for(int i = 0; i < numberOfVerticalSeamsToCarve; i++) {
+		if (canLoadSeams(numberOfVerticalSeamsToCarve, true)) {
+			loadVerticalSeams(numberOfVerticalSeamsToCarve);
+			return;
+		}
+		if (transposed)
+			transposeBuffers();
+		for(int carved = 0; carved < numberOfVerticalSeamsToCarve; ) {
+			for(int[] seam : carveNextVerticalSeams(Math.min(seamsBatchSize, numberOfVerticalSeamsToCarve - carved))) {
+				verticalSeamsRecord[verticalSeamsCount++] = seam.clone();
+				carved++;
+				seamsCarved(1);
+			}
+		}
+	}
+
+	//MARK: Seams of a seam index map
+	// The seams of the map are the seams carved one at a time from the original image, so they can replace the
+	// seams carved before any other.
+	private boolean canLoadSeams(int count, boolean vertical) {
+		if (seamIndexMap == null || count == 0)
+			return false;
+		int mapSeams = vertical ? seamIndexMap.width - seamIndexMap.minWidth : seamIndexMap.height - seamIndexMap.minHeight;
+		return count <= mapSeams && verticalSeamsCount == 0 && horizontalSeamsCount == 0
+				&& seamsBatchSize == 1 && pyramidFactor == 1 && seamOrigins == null;
+	}
+
+	// Carves the first count vertical seams of the map in a single pass over the buffers.
+	private void loadVerticalSeams(int count) {
+		long start = stageStart();
+		for(int[] seam : seamIndexMap.verticalSeams(count))
+			verticalSeamsRecord[verticalSeamsCount++] = seam;
+		for(int y = 0; y < carvedHeight; y++) {
+			int to = y * stride;
+			for(int x = 0; x < carvedWidth; x++) {
+				if (seamIndexMap.verticalOrder(x, y) < count)
+					continue;
+				pixelOrigin.set(to, pixelOrigin.get(y * stride + x));
+				greyImgValues.set(to++, greyImgValues.get(y * stride + x));
+			}
+		}
+		carvedWidth -= count;
+		stageDone(Stage.COMPACTION, start);
+		seamsLoaded(count, "vertical");
+	}
+
+	private void loadHorizontalSeams(int count) {
+		long start = stageStart();
+		for(int[] seam : seamIndexMap.horizontalSeams(count))
+			horizontalSeamsRecord[horizontalSeamsCount++] = seam;
+		for(int x = 0; x < carvedWidth; x++) {
+			int to = x;
+			for(int y = 0; y < carvedHeight; y++) {
+				if (seamIndexMap.horizontalOrder(x, y) < count)
+					continue;
+				pixelOrigin.set(to, pixelOrigin.get(y * stride + x));
+				greyImgValues.set(to, greyImgValues.get(y * stride + x));
+				to += stride;
+			}
+		}
+		carvedHeight -= count;
+		stageDone(Stage.COMPACTION, start);
+		seamsLoaded(count, "horizontal");
+	}
+
+	private void seamsLoaded(int count, String direction) {
+		initialEnergies = false;
+		pendingCostsUpdate = null;
+		proxyCarver = null;
+		logger.log("Took " + count + " " + direction + " seams from the seam index map.");
+		seamsCarved(count);
+	}
+
+	// Finds and carves up to count vertical seams of the buffers in their current layout, using a single
+	// energy and cost computation, and returns them. The seams are ordered right to left, so each one is
+	// valid in the image left after carving the seams before it.
+	private int[][] carveNextVerticalSeams(int count) {
+		if (pyramidFactor > 1 && carvedWidth / pyramidFactor >= MIN_PROXY_SIZE
+				&& carvedHeight / pyramidFactor >= MIN_PROXY_SIZE) {
+			return new int[][] { carveNextPyramidVerticalSeam() };
+		}
+		long start = stageStart();
+		if (pendingCostsUpdate == SeamDirection.VERTICAL) {
+			updateVerticalCosts(lastSeam);
+		}
+		else {
 			initPixelEnergyMatrix();
+			start = stageDone(Stage.ENERGY, start);
 			findVerticalMinCost();
-			Coordinate[] seam = findVerticalSeam();
-			verticalSeamsRecord[verticalSeamsCount++] = seam.clone();
-			carveVerticalSeam(seam);
+		}
+		start = stageDone(Stage.COSTS, start);
+		int[][] seams;
+		if (count == 1) {
+			seams = new int[][] { findVerticalSeam() };
+			carvedSeamsCost += cumulativeCostMatrix.get(seams[0][carvedHeight - 1]);
+		}
+		else {
+			seams = findDisjointVerticalSeams(count);
+			for(int[] seam : seams)
+				carvedSeamsCost += verticalSeamCost(seam);
+		}
+		start = stageDone(Stage.BACKTRACK, start);
+		proxyCarver = null;
+		if (seams.length == 1) {
+			carveVerticalSeam(seams[0]);
 			carvedWidth--;
+			lastSeam = seams[0];
+			pendingCostsUpdate = incrementalUpdates ? SeamDirection.VERTICAL : null;
+		}
+		else {
+			carveDisjointVerticalSeams(seams);
+			carvedWidth -= seams.length;
+			pendingCostsUpdate = null;
+		}
+		stageDone(Stage.COMPACTION, start);
+		return seams;
+	}
+
+	// Finds and carves the next vertical seam inside the band of the current proxy seam, carving a new proxy
+	// seam once the band has given its pyramidFactor seams.
+	private int[] carveNextPyramidVerticalSeam() {
+		if (proxyCarver == null) {
+			proxyCarver = createProxyCarver(pyramidFactor);
+			bandSeamsLeft = 0;
+		}
+		if (bandSeamsLeft == 0) {
+			setBand(proxyCarver.carveNextVerticalSeams(1)[0]);
+			bandSeamsLeft = pyramidFactor;
+		}
+
+		long start = stageStart();
+		findBandedVerticalMinCost();
+		start = stageDone(Stage.COSTS, start);
+		int lastRow = (carvedHeight - 1) * stride;
+		int min = bandFrom[carvedHeight - 1];
+		for(int x = min + 1; x <= bandTo[carvedHeight - 1]; x++) {
+			if(cumulativeCostMatrix.get(lastRow + x) < cumulativeCostMatrix.get(lastRow + min))
+				min = x;
+		}
+		int[] seam = new int[carvedHeight];
+		for(int y = carvedHeight - 1; y >= 0; y--){
+			seam[y] = y * stride + min;
+			min += minimumDirections.get(seam[y]);
+		}
+		carvedSeamsCost += cumulativeCostMatrix.get(seam[carvedHeight - 1]);
+		start = stageDone(Stage.BACKTRACK, start);
+
+		carveVerticalSeam(seam);
+		carvedWidth--;
+		stageDone(Stage.COMPACTION, start);
+		for(int y = 0; y < carvedHeight; y++)
+			bandTo[y] = Math.min(bandTo[y] - 1, carvedWidth - 1);
+		bandSeamsLeft--;
+		lastSeam = seam;
+		pendingCostsUpdate = null;
+		return seam;
+	}
+
+	// Creates a carver for the carved grey image downsampled by the given factor with a box filter.
+	BasicSeamsCarver createProxyCarver(int factor) {
+		int proxyWidth = (carvedWidth + factor - 1) / factor;
+		int proxyHeight = (carvedHeight + factor - 1) / factor;
+		BufferedImage proxy = new BufferedImage(proxyWidth, proxyHeight, BufferedImage.TYPE_INT_RGB);
+		for(int py = 0; py < proxyHeight; py++) {
+			for(int px = 0; px < proxyWidth; px++) {
+				int sum = 0, count = 0;
+				for(int y = py * factor; y < Math.min((py + 1) * factor, carvedHeight); y++) {
+					for(int x = px * factor; x < Math.min((px + 1) * factor, carvedWidth); x++) {
+						sum += greyImgValues.get(y * stride + x);
+						count++;
+					}
+				}
+				int grey = sum / count;
+				proxy.setRGB(px, py, (grey << 16) | (grey << 8) | grey);
+			}
+		}
+		logger.log("Using a " + proxyWidth + "x" + proxyHeight + " proxy.");
+		BasicSeamsCarver carver = new BasicSeamsCarver((s) -> {}, proxy, proxyWidth, proxyHeight, new RGBWeights(1, 1, 1));
+		carver.setParallelThreshold(parallelThreshold);
+		return carver;
+	}
+
+	// Removes the cheapest seam in the given direction from an external width x height grey buffer laid out
+	// with this carver's stride, and returns the seam cost. Only the given buffer changes: the grey values,
+	// carved size, pixel origins and seam records of this carver are left alone, and the energy and cost
+	// matrices serve as scratch space. The transport map planner keeps many carving states of a proxy this
+	// way while sharing the energy and cost buffers of a single carver.
+	double removeCheapestSeam(IntArray greyValues, int width, int height, boolean vertical) {
+		IntArray ownGreyValues = greyImgValues;
+		int ownWidth = carvedWidth, ownHeight = carvedHeight;
+		greyImgValues = greyValues;
+		carvedWidth = width;
+		carvedHeight = height;
+		initialEnergies = false;
+		pendingCostsUpdate = null;
+		try {
+			initPixelEnergyMatrix();
+			int[] seam;
+			if (vertical) {
+				findVerticalMinCost();
+				seam = findVerticalSeam();
+				removeVerticalSeam(greyValues, seam);
+			}
+			else {
+				findHorizontalMinCost();
+				seam = findHorizontalSeam();
+				removeHorizontalSeam(greyValues, seam);
+			}
+			return cumulativeCostMatrix.get(seam[seam.length - 1]);
+		}
+		finally {
+			greyImgValues = ownGreyValues;
+			carvedWidth = ownWidth;
+			carvedHeight = ownHeight;
+		}
+	}
+
+	// Sets the band of every row around the upsampled proxy seam. A row takes the proxy columns of its proxy
+	// row and the two neighbouring proxy rows, so the bands of consecutive rows always overlap.
+	private void setBand(int[] proxySeam) {
+		bandFrom = new int[carvedHeight];
+		bandTo = new int[carvedHeight];
+		int proxyHeight = proxySeam.length;
+		for(int y = 0; y < carvedHeight; y++) {
+			int proxyY = Math.min(y / pyramidFactor, proxyHeight - 1);
+			int from = Integer.MAX_VALUE, to = Integer.MIN_VALUE;
+			for(int py = Math.max(proxyY - 1, 0); py <= Math.min(proxyY + 1, proxyHeight - 1); py++) {
+				int proxyX = proxySeam[py] - py * proxyCarver.stride;
+				from = Math.min(from, proxyX);
+				to = Math.max(to, proxyX);
+			}
+			bandFrom[y] = Math.max(from * pyramidFactor - pyramidBandWidth, 0);
+			bandTo[y] = Math.min(to * pyramidFactor + pyramidFactor - 1 + pyramidBandWidth, carvedWidth - 1);
+		}
+	}
+
+	// Computes the energies and costs of the band cells only. The cells of the previous row that the band
+	// of a row reads but are outside the band of the previous row get an infinite cost.
+	private void findBandedVerticalMinCost() {
+		for(int y = 0; y < carvedHeight; y++) {
+			int row = y * stride;
+			pixelEnergies(y, bandFrom[y], bandTo[y] + 1);
+			if (y > 0) {
+				int above = row - stride;
+				for(int x = Math.max(bandFrom[y] - 1, 0); x < bandFrom[y - 1]; x++)
+					cumulativeCostMatrix.set(above + x, Double.POSITIVE_INFINITY);
+				for(int x = bandTo[y - 1] + 1; x <= Math.min(bandTo[y] + 1, carvedWidth - 1); x++)
+					cumulativeCostMatrix.set(above + x, Double.POSITIVE_INFINITY);
+			}
+			for(int x = bandFrom[y]; x <= bandTo[y]; x++)
+				findVerticalMinCostPerPixel(y, x);
+		}
+	}
+
+	// The cost of the given vertical seam of the current buffers: its energies plus the costs of its steps,
+	// as the dynamic programming computes them.
+	private double verticalSeamCost(int[] seam) {
+		double cost = 0;
+		for(int y = 0; y < seam.length; y++) {
+			int i = seam[y];
+			int x = i - y * stride;
+			cost += pixelEnergyMatrix.get(i);
+			if (y == 0)
+				continue;
+			int direction = (seam[y - 1] - (y - 1) * stride) - x;
+			double Cv = 0;
+			if (x > 0 && x != carvedWidth - 1)
+				Cv = Math.abs(greyImgValues.get(i - 1) - greyImgValues.get(i + 1));
+			if (direction < 0)
+				cost += Math.abs(greyImgValues.get(i - 1) - greyImgValues.get(i - stride)) + Cv;
+			else if (direction > 0)
+				cost += Math.abs(greyImgValues.get(i + 1) - greyImgValues.get(i - stride)) + Cv;
+			else
+				cost += Cv;
+		}
+		return cost;
+	}
+
+	// Greedily extracts up to count pixel-disjoint and non-crossing vertical seams from the cost matrix.
+	// The bottom row cells are tried in increasing cost order, and each one is backtracked along its minimal
+	// direction, stepping to the cheapest free neighbour when that step is blocked by an earlier seam. The
+	// first seam is always the one findVerticalSeam returns.
+	private int[][] findDisjointVerticalSeams(int count) {
+		if (takenPixels == null)
+			takenPixels = store.newByteArray(pixelOrigin.length);
+		int lastRow = (carvedHeight - 1) * stride;
+		int[] candidates = IntStream.range(0, carvedWidth).boxed()
+				.sorted(Comparator.comparingDouble(x -> cumulativeCostMatrix.get(lastRow + x)))
+				.mapToInt(Integer::intValue).toArray();
+
+		List<int[]> paths = new ArrayList<>();
+		for(int c = 0; c < candidates.length && paths.size() < count; c++) {
+			int[] path = backtrackFreeVerticalPath(candidates[c]);
+			if (path == null)
+				continue;
+			for(int y = 0; y < carvedHeight; y++)
+				takenPixels.set(y * stride + path[y], (byte) 1);
+			paths.add(path);
+		}
+
+		paths.sort(Comparator.comparingInt((int[] path) -> path[0]).reversed());
+		int[][] seams = new int[paths.size()][carvedHeight];
+		for(int i = 0; i < seams.length; i++) {
+			for(int y = 0; y < carvedHeight; y++) {
+				seams[i][y] = y * stride + paths.get(i)[y];
+				takenPixels.set(seams[i][y], (byte) 0);
+			}
+		}
+		return seams;
+	}
+
+	// Returns the columns of the vertical path ending at the given bottom row column that neither touches nor
+	// crosses the taken pixels, or null if there is no such path.
+	private int[] backtrackFreeVerticalPath(int x) {
+		if (takenPixels.get((carvedHeight - 1) * stride + x) != 0)
+			return null;
+		int[] path = new int[carvedHeight];
+		for(int y = carvedHeight - 1; y > 0; y--) {
+			path[y] = x;
+			int next = x + minimumDirections.get(y * stride + x);
+			if (!isFreeStep(y, x, next)) {
+				int above = (y - 1) * stride;
+				next = -1;
+				for(int candidate = Math.max(x - 1, 0); candidate <= Math.min(x + 1, carvedWidth - 1); candidate++) {
+					if (isFreeStep(y, x, candidate) && (next == -1
+							|| cumulativeCostMatrix.get(above + candidate) < cumulativeCostMatrix.get(above + next)))
+						next = candidate;
+				}
+				if (next == -1)
+					return null;
+			}
+			x = next;
+		}
+		path[0] = x;
+		return path;
+	}
+
+	// Whether a path may step from column x of row y to column next of row y - 1. Two disjoint seams can only
+	// swap their order through an X shaped crossing, so a diagonal step between two taken pixels is refused.
+	private boolean isFreeStep(int y, int x, int next) {
+		int above = (y - 1) * stride;
+		if (takenPixels.get(above + next) != 0)
+			return false;
+		return next == x || !(takenPixels.get(y * stride + next) != 0 && takenPixels.get(above + x) != 0);
+	}
+
+	// Removes all the given disjoint vertical seams in a single compaction pass over each row.
+	private void carveDisjointVerticalSeams(int[][] seams) {
+		initialEnergies = false;
+		for(int[] seam : seams)
+			recordOrigins(seam);
+		int[] columns = new int[seams.length];
+		for(int y = 0; y < carvedHeight; y++) {
+			int row = y * stride;
+			for(int i = 0; i < seams.length; i++)
+				columns[i] = seams[i][y] - row;
+			Arrays.sort(columns);
+
+			int write = row + columns[0];
+			for(int i = 0; i < columns.length; i++) {
+				int from = row + columns[i] + 1;
+				int length = (i + 1 < columns.length ? row + columns[i + 1] : row + carvedWidth) - from;
+				pixelOrigin.copy(from, write, length);
+				greyImgValues.copy(from, write, length);
+				write += length;
+			}
+		}
+	}
+
+	// Transposes the origins and grey values of the carved area, switching between the row-major layout and
+	// the transposed one. The energy and cost matrices are recomputed by the next seam search.
+	private void transposeBuffers() {
+		long start = stageStart();
+		int newStride = transposed ? inWidth : inHeight;
+		if (transposeScratch == null)
+			transposeScratch = store.newIntArray(pixelOrigin.length);
+
+		IntArray origins = transposeScratch;
+		transpose(pixelOrigin, origins, newStride);
+		transposeScratch = pixelOrigin;
+		pixelOrigin = origins;
+
+		IntArray greys = transposeScratch;
+		transpose(greyImgValues, greys, newStride);
+		transposeScratch = greyImgValues;
+		greyImgValues = greys;
+
+		int width = carvedWidth;
+		carvedWidth = carvedHeight;
+		carvedHeight = width;
+		stride = newStride;
+		transposed = !transposed;
+		initialEnergies = false;
+		pendingCostsUpdate = null;
+		proxyCarver = null;
+		stageDone(Stage.COMPACTION, start);
+	}
+
+	// Copies the transpose of the carved area of source into destination, in blocks that fit the cache.
+	private void transpose(IntArray source, IntArray destination, int newStride) {
+		final int block = 32;
+		for(int y0 = 0; y0 < carvedHeight; y0 += block) {
+			for(int x0 = 0; x0 < carvedWidth; x0 += block) {
+				int yEnd = Math.min(y0 + block, carvedHeight), xEnd = Math.min(x0 + block, carvedWidth);
+				for(int y = y0; y < yEnd; y++) {
+					for(int x = x0; x < xEnd; x++) {
+						destination.set(x * newStride + y, source.get(y * stride + x));
+					}
+				}
+			}
+		}
+	}
+
+	// Updates the matrices after the given vertical seam was carved (carvedWidth is already decremented).
+	// Cells right of the seam keep their energy and cost, shifted one column left. Energies are recomputed
+	// in a band of one pixel around the seam of the row and its neighbouring rows, and costs are recomputed
+	// in that band plus the cells next to the ones whose cost changed in the previous row.
+	private void updateVerticalCosts(int[] seam) {
+		int changedFrom = 0;
+		int changedTo = -1;
+		for(int y = 0; y < carvedHeight; y++) {
+			int row = y * stride;
+			int seamX = seam[y] - row;
+			int length = carvedWidth - seamX;
+			pixelEnergyMatrix.copy(row + seamX + 1, row + seamX, length);
+			cumulativeCostMatrix.copy(row + seamX + 1, row + seamX, length);
+			minimumDirections.copy(row + seamX + 1, row + seamX, length);
+
+			int bandFrom = seamX, bandTo = seamX;
+			if (y > 0) {
+				bandFrom = Math.min(bandFrom, seam[y - 1] - row + stride);
+				bandTo = Math.max(bandTo, seam[y - 1] - row + stride);
+			}
+			if (y < carvedHeight - 1) {
+				bandFrom = Math.min(bandFrom, seam[y + 1] - row - stride);
+				bandTo = Math.max(bandTo, seam[y + 1] - row - stride);
+			}
+			bandFrom = Math.max(bandFrom - 1, 0);
+			bandTo = Math.min(bandTo + 1, carvedWidth - 1);
+			for(int x = bandFrom; x <= bandTo; x++)
+				pixelEnergyMatrix.set(row + x, pixelEnergy(y, x));
+
+			if (changedFrom <= changedTo) {
+				bandFrom = Math.max(Math.min(bandFrom, changedFrom - 1), 0);
+				bandTo = Math.min(Math.max(bandTo, changedTo + 1), carvedWidth - 1);
+			}
+			changedFrom = carvedWidth;
+			changedTo = -1;
+			for(int x = bandFrom; x <= bandTo; x++) {
+				double previousCost = cumulativeCostMatrix.get(row + x);
+				byte previousDirection = minimumDirections.get(row + x);
+				findVerticalMinCostPerPixel(y, x);
+				if (cumulativeCostMatrix.get(row + x) != previousCost || minimumDirections.get(row + x) != previousDirection) {
+					changedFrom = Math.min(changedFrom, x);
+					changedTo = x;
+				}
+			}
+		}
+	}
+
+	// The horizontal counterpart of updateVerticalCosts, walking the columns.
+	private void updateHorizontalCosts(int[] seam) {
+		int changedFrom = 0;
+		int changedTo = -1;
+		for(int x = 0; x < carvedWidth; x++) {
+			int seamY = seam[x] / stride;
+			for(int i = seam[x]; i < carvedHeight * stride; i += stride) {
+				pixelEnergyMatrix.set(i, pixelEnergyMatrix.get(i + stride));
+				cumulativeCostMatrix.set(i, cumulativeCostMatrix.get(i + stride));
+				minimumDirections.set(i, minimumDirections.get(i + stride));
+			}
+
+			int bandFrom = seamY, bandTo = seamY;
+			if (x > 0) {
+				bandFrom = Math.min(bandFrom, seam[x - 1] / stride);
+				bandTo = Math.max(bandTo, seam[x - 1] / stride);
+			}
+			if (x < carvedWidth - 1) {
+				bandFrom = Math.min(bandFrom, seam[x + 1] / stride);
+				bandTo = Math.max(bandTo, seam[x + 1] / stride);
+			}
+			bandFrom = Math.max(bandFrom - 1, 0);
+			bandTo = Math.min(bandTo + 1, carvedHeight - 1);
+			for(int y = bandFrom; y <= bandTo; y++)
+				pixelEnergyMatrix.set(y * stride + x, pixelEnergy(y, x));
+
+			if (changedFrom <= changedTo) {
+				bandFrom = Math.max(Math.min(bandFrom, changedFrom - 1), 0);
+				bandTo = Math.min(Math.max(bandTo, changedTo + 1), carvedHeight - 1);
+			}
+			changedFrom = carvedHeight;
+			changedTo = -1;
+			for(int y = bandFrom; y <= bandTo; y++) {
+				int i = y * stride + x;
+				double previousCost = cumulativeCostMatrix.get(i);
+				byte previousDirection = minimumDirections.get(i);
+				findHorizontalMinCostPerPixel(y, x);
+				if (cumulativeCostMatrix.get(i) != previousCost || minimumDirections.get(i) != previousDirection) {
+					changedFrom = Math.min(changedFrom, y);
+					changedTo = y;
+				}
+			}
 		}
 	}
 
 	private BufferedImage createCarvedImg() {
-		BufferedImage img = newEmptyOutputSizedImage();
+		if (transposed)
+			transposeBuffers();
+		return fillCarvedImg(newEmptyOutputSizedImage());
+	}
+
+	// Carves count seams of a single direction, for the stages of AdvancedSeamsCarver.
+	void carveSeams(boolean vertical, int count) {
+		if (vertical)
+			carveVerticalSeams(count);
+		else
+			carveHorizontalSeams(count);
+	}
+
+	// The image left by the seams carved so far, carvedWidth x carvedHeight.
+	BufferedImage carvedImage() {
+		if (transposed)
+			transposeBuffers();
+		return fillCarvedImg(new BufferedImage(carvedWidth, carvedHeight, workingImageType));
+	}
+
+	// Gives the carver the settings of this carver.
+	void copySettingsTo(BasicSeamsCarver carver) {
+		carver.incrementalUpdates = incrementalUpdates;
+		carver.transposedHorizontalCarving = transposedHorizontalCarving;
+		carver.seamsBatchSize = seamsBatchSize;
+		carver.pyramidFactor = pyramidFactor;
+		carver.pyramidBandWidth = pyramidBandWidth;
+		carver.transportMapMemoryBudget = transportMapMemoryBudget;
+		carver.parallelThreshold = parallelThreshold;
+		carver.wavefront = wavefront;
+	}
+
+	private BufferedImage fillCarvedImg(BufferedImage img) {
+		long start = stageStart();
+		PixelRaster in = PixelRaster.of(workingImage);
+		PixelRaster out = PixelRaster.of(img);
 
 		for(int y = 0; y < carvedHeight; y++) {
 			for(int x = 0; x < carvedWidth; x++) {
-				Coordinate origin = pixelOrigin[y][x];
-				img.setRGB(x, y, workingImage.getRGB(origin.X, origin.Y));
+				int origin = pixelOrigin.get(y * stride + x);
+				out.setRGB(x, y, in.getRGB(origin % inWidth, origin / inWidth));
 			}
 		}
 
+		imageBuilt(start);
 		return img;
 	}
 
-	private void carveVerticalSeam(Coordinate[] seam) {
-		for(int i = 0; i < seam.length; i++){
-			for(int x = seam[i].X + 1; x < carvedWidth; x++){
-				pixelOrigin[seam[i].Y][x - 1] = pixelOrigin[seam[i].Y][x];
-				greyImgValues[seam[i].Y][x - 1] = greyImgValues[seam[i].Y][x];
-			}
+	private void recordOrigins(int[] seam) {
+		if (seamOrigins == null)
+			return;
+		int[] origins = new int[seam.length];
+		for(int i = 0; i < seam.length; i++)
+			origins[i] = pixelOrigin.get(seam[i]);
+		seamOrigins.add(origins);
+	}
+
+	private void carveVerticalSeam(int[] seam) {
+		initialEnergies = false;
+		recordOrigins(seam);
+		removeVerticalSeam(pixelOrigin, seam);
+		removeVerticalSeam(greyImgValues, seam);
+	}
+
+	private void carveHorizontalSeam(int[] seam) {
+		initialEnergies = false;
+		recordOrigins(seam);
+		removeHorizontalSeam(pixelOrigin, seam);
+		removeHorizontalSeam(greyImgValues, seam);
+	}
+
+	// Shifts the values right of a vertical seam one column left, in a buffer laid out with this carver's stride.
+	private void removeVerticalSeam(IntArray values, int[] seam) {
+		for(int y = 0; y < seam.length; y++){
+			values.copy(seam[y] + 1, seam[y], (y * stride + carvedWidth) - (seam[y] + 1));
 		}
 	}
 
-	private void carveHorizontalSeam(Coordinate[] seam) {
-		for(int i = 0; i < seam.length; i++){
-			for(int y = seam[i].Y + 1; y < carvedHeight; y++){
-				pixelOrigin[y - 1][seam[i].X] = pixelOrigin[y][seam[i].X];
-				greyImgValues[y - 1][seam[i].X] = greyImgValues[y][seam[i].X];
+	// Shifts the values below a horizontal seam one row up, in a buffer laid out with this carver's stride.
+	private void removeHorizontalSeam(IntArray values, int[] seam) {
+		for(int x = 0; x < seam.length; x++){
+			for(int i = seam[x] + stride; i < carvedHeight * stride; i += stride){
+				values.set(i - stride, values.get(i));
 			}
 		}
 	}
 
-	private Coordinate[] findVerticalSeam() {
-		Coordinate[] seam = new Coordinate[carvedHeight];
+	private int[] findVerticalSeam() {
+		int[] seam = new int[carvedHeight];
+		int lastRow = (carvedHeight - 1) * stride;
 		int min = 0;
-		for(int y = 0; y < carvedWidth; y++){
-			if(pixelEnergyMatrix[carvedHeight - 1][y] < pixelEnergyMatrix[carvedHeight - 1][min])
-				min = y;
+		for(int x = 0; x < carvedWidth; x++){
+			if(cumulativeCostMatrix.get(lastRow + x) < cumulativeCostMatrix.get(lastRow + min))
+				min = x;
 		}
 
 		for(int y = carvedHeight - 1; y >= 0; y--){
-			seam[y] = new Coordinate(min, y);
-			min = minimumCoordinates[y][min];
+			seam[y] = y * stride + min;
+			min += minimumDirections.get(seam[y]);
 		}
 
 		return seam;
 	}
-	private Coordinate[] findHorizontalSeam() {
-		Coordinate[] seam = new Coordinate[carvedWidth];
+	private int[] findHorizontalSeam() {
+		int[] seam = new int[carvedWidth];
+		int lastColumn = carvedWidth - 1;
 		int min = 0;
 
-		for(int x = 0; x < carvedHeight; x++){
-			if(pixelEnergyMatrix[x][carvedWidth - 1] < pixelEnergyMatrix[min][carvedWidth - 1])
-				min = x;
+		for(int y = 0; y < carvedHeight; y++){
+			if(cumulativeCostMatrix.get(y * stride + lastColumn) < cumulativeCostMatrix.get(min * stride + lastColumn))
+				min = y;
 		}
 
 		for(int x = carvedWidth - 1; x >= 0; x--){
-			seam[x] = new Coordinate(x, min);
-			min = minimumCoordinates[min][x];
+			seam[x] = min * stride + x;
+			min += minimumDirections.get(seam[x]);
 		}
 
 		return seam;
 	}
 
 	private void findVerticalMinCost() {
+		if (carvedWidth >= parallelThreshold) {
+			for(int y = 0; y < carvedHeight; y++) {
+				int row = y;
+				wavefront.forEachSpan(carvedWidth, (fromX, toX) -> {
+					for (int x = fromX; x < toX; x++)
+						findVerticalMinCostPerPixel(row, x);
+				});
+			}
+			return;
+		}
 		for(int y = 0; y < carvedHeight; y++) {
 			for(int x = 0; x < carvedWidth; x++) {
 				findVerticalMinCostPerPixel(y, x);
@@ -269,14 +1231,25 @@ public class BasicSeamsCarver extends ImageProcessor {
 	}
 
 	private void findHorizontalMinCost() {
-		for(int y = 0; y < carvedWidth; y++) {
-			for(int x = 0; x < carvedHeight; x++) {
-				findHorizontalMinCostPerPixel(x, y);
+		if (carvedHeight >= parallelThreshold) {
+			for(int x = 0; x < carvedWidth; x++) {
+				int column = x;
+				wavefront.forEachSpan(carvedHeight, (fromY, toY) -> {
+					for (int y = fromY; y < toY; y++)
+						findHorizontalMinCostPerPixel(y, column);
+				});
+			}
+			return;
+		}
+		for(int x = 0; x < carvedWidth; x++) {
+			for(int y = 0; y < carvedHeight; y++) {
+				findHorizontalMinCostPerPixel(y, x);
 			}
 		}
 	}
 
 	private void findHorizontalMinCostPerPixel(int y, int x) {
+		int i = y * stride + x;
 		double min = 0;
 		double Cu = 0;
 		double Mu = Integer.MAX_VALUE;
@@ -287,31 +1260,32 @@ public class BasicSeamsCarver extends ImageProcessor {
 
 		if (x > 0) {
 			if (y > 0 && y != carvedHeight - 1) {
-				Ch = Math.abs(greyImgValues[y - 1][x] - greyImgValues[y + 1][x]);
-				Mh = pixelEnergyMatrix[y][x - 1];
+				Ch = Math.abs(greyImgValues.get(i - stride) - greyImgValues.get(i + stride));
+				Mh = cumulativeCostMatrix.get(i - 1);
 			}
 			if (y > 0) {
-				Cu = Math.abs(greyImgValues[y - 1][x] - greyImgValues[y][x - 1]) + Ch;
-				Mu = pixelEnergyMatrix[y - 1][x - 1];
+				Cu = Math.abs(greyImgValues.get(i - stride) - greyImgValues.get(i - 1)) + Ch;
+				Mu = cumulativeCostMatrix.get(i - stride - 1);
 			}
 			if (y != carvedHeight - 1){
-				Cd = Math.abs(greyImgValues[y + 1][x] - greyImgValues[y][x - 1]) + Ch;
-				Md = pixelEnergyMatrix[y + 1][x - 1];
+				Cd = Math.abs(greyImgValues.get(i + stride) - greyImgValues.get(i - 1)) + Ch;
+				Md = cumulativeCostMatrix.get(i + stride - 1);
 			}
 			min = Math.min(Math.min(Mu + Cu, Mh + Ch), Md + Cd);
 		}
 
-		int minY = y;
+		byte direction = 0;
 		if (min == Mu + Cu && y > 0)
-			minY -= 1;
+			direction = -1;
 		else if (min == Md + Cd && y != carvedHeight - 1)
-			minY += 1;
+			direction = 1;
 
-		minimumCoordinates[y][x] = minY;
-		pixelEnergyMatrix[y][x] += min;
+		minimumDirections.set(i, direction);
+		cumulativeCostMatrix.set(i, pixelEnergyMatrix.get(i) + min);
 	}
 
 	private void findVerticalMinCostPerPixel(int y, int x) {
+		int i = y * stride + x;
 		double min = 0;
 		double Cl = 0;
 		double Ml = Integer.MAX_VALUE;
@@ -322,28 +1296,28 @@ public class BasicSeamsCarver extends ImageProcessor {
 
 		if (y > 0) {
 			if (x > 0 && x != carvedWidth - 1) {
-				Cv = Math.abs(greyImgValues[y][x - 1] - greyImgValues[y][x + 1]);
-				Mv = pixelEnergyMatrix[y - 1][x];
+				Cv = Math.abs(greyImgValues.get(i - 1) - greyImgValues.get(i + 1));
+				Mv = cumulativeCostMatrix.get(i - stride);
 			}
 			if (x > 0) {
-				Cl = Math.abs(greyImgValues[y][x - 1] - greyImgValues[y - 1][x]) + Cv;
-				Ml = pixelEnergyMatrix[y - 1][x - 1];
+				Cl = Math.abs(greyImgValues.get(i - 1) - greyImgValues.get(i - stride)) + Cv;
+				Ml = cumulativeCostMatrix.get(i - stride - 1);
 			}
 			if (x != carvedWidth - 1){
-				Cr = Math.abs(greyImgValues[y][x + 1] - greyImgValues[y - 1][x]) + Cv;
-				Mr = pixelEnergyMatrix[y - 1][x + 1];
+				Cr = Math.abs(greyImgValues.get(i + 1) - greyImgValues.get(i - stride)) + Cv;
+				Mr = cumulativeCostMatrix.get(i - stride + 1);
 			}
 			min = Math.min(Math.min(Ml + Cl, Mv + Cv), Mr + Cr);
 		}
 
-		int minX = x;
+		byte direction = 0;
 		if (min == Ml + Cl && x > 0)
-			minX -= 1;
+			direction = -1;
 		else if (min == Mr + Cr && x != carvedWidth - 1)
-			minX += 1;
+			direction = 1;
 
-		minimumCoordinates[y][x] = minX;
-		pixelEnergyMatrix[y][x] += min;
+		minimumDirections.set(i, direction);
+		cumulativeCostMatrix.set(i, pixelEnergyMatrix.get(i) + min);
 	}
 
 
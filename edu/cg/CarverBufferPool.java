@@ -0,0 +1,118 @@
+package edu.cg;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// Free lists of the heap buffers of seams carvers, shared by the carvers of a SeamsCarvingEngine so that a
+// long run of similar sized images reuses the same few buffers instead of allocating hundreds of MB per image.
+// Buffers are pooled in size classes, four per power of two, so an image a little bigger or smaller than the
+// previous one reuses its buffers at the cost of at most a quarter of unused capacity. A released buffer is
+// dropped instead of pooled when the pool would retain more than maxRetainedBytes.
+// The carvers take and give back a handful of buffers per image, so the pool is a single lock.
+public class CarverBufferPool {
+	private static final int INTS = 0, DOUBLES = 1, BYTES = 2;
+
+	private final long maxRetainedBytes;
+	private final Map<Long, ArrayDeque<Object>> free = new HashMap<>();
+	private long retainedBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long dropped = 0;
+
+	public CarverBufferPool(long maxRetainedBytes) {
+		if (maxRetainedBytes < 0)
+			throw new IllegalArgumentException("The retained bytes can not be negative.");
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// The number of released buffers that did not fit in maxRetainedBytes.
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	// Drops all the pooled buffers.
+	public synchronized void clear() {
+		free.clear();
+		retainedBytes = 0;
+	}
+
+	// The returned arrays hold the values of their previous use, and are at least length long.
+	int[] takeInts(int length) {
+		Object pooled = take(INTS, length, Integer.BYTES);
+		return pooled != null ? (int[]) pooled : new int[capacity(length)];
+	}
+
+	double[] takeDoubles(int length) {
+		Object pooled = take(DOUBLES, length, Double.BYTES);
+		return pooled != null ? (double[]) pooled : new double[capacity(length)];
+	}
+
+	byte[] takeBytes(int length) {
+		Object pooled = take(BYTES, length, Byte.BYTES);
+		return pooled != null ? (byte[]) pooled : new byte[capacity(length)];
+	}
+
+	void give(int[] values) {
+		give(INTS, values, values.length, Integer.BYTES);
+	}
+
+	void give(double[] values) {
+		give(DOUBLES, values, values.length, Double.BYTES);
+	}
+
+	void give(byte[] values) {
+		give(BYTES, values, values.length, Byte.BYTES);
+	}
+
+	private synchronized Object take(int kind, int length, int elementBytes) {
+		int capacity = capacity(length);
+		ArrayDeque<Object> list = free.get(key(kind, capacity));
+		if (list == null || list.isEmpty()) {
+			misses++;
+			return null;
+		}
+		hits++;
+		retainedBytes -= (long) capacity * elementBytes;
+		return list.pop();
+	}
+
+	private synchronized void give(int kind, Object values, int capacity, int elementBytes) {
+		long bytes = (long) capacity * elementBytes;
+		if (retainedBytes + bytes > maxRetainedBytes) {
+			dropped++;
+			return;
+		}
+		free.computeIfAbsent(key(kind, capacity), k -> new ArrayDeque<>()).push(values);
+		retainedBytes += bytes;
+	}
+
+	private static long key(int kind, int capacity) {
+		return (long) capacity << 2 | kind;
+	}
+
+	// The smallest size class holding length elements.
+	private static int capacity(int length) {
+		if (length <= 64)
+			return 64;
+		int step = Integer.highestOneBit(length - 1) >> 2;
+		long capacity = ((long) length + step - 1) / step * step;
+		return (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+	}
+}
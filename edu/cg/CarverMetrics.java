@@ -0,0 +1,92 @@
+package edu.cg;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import edu.cg.Metrics.Counter;
+import edu.cg.Metrics.Histogram;
+import edu.cg.Metrics.Timer;
+
+// The metrics of a seams carver, in the metrics of its logger: a timer per stage of the carving, and, once its
+// image is built, its seams, the seams it carved per second, the bytes its thread allocated and the bytes of its
+// buffers, all counted from its creation on. The allocated bytes are the ones of the carving thread only, the
+// wavefront workers are not counted.
+final class CarverMetrics {
+	enum Stage {
+		GREYSCALE("greyscale", "Reading the image into grey values and their first energies"),
+		ENERGY("energy", "Computing the pixel energies of the whole carved image"),
+		COSTS("costs", "Computing the cumulative seam costs (the dynamic programming), or updating the energies and"
+				+ " costs around the last seam"),
+		BACKTRACK("backtrack", "Following the back pointers of the cheapest seams"),
+		COMPACTION("compaction", "Removing the seams from the buffers and transposing them"),
+		IMAGE("image", "Building the output image");
+
+		private final String name;
+		private final String help;
+
+		private Stage(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+	}
+
+	// The allocation counters of the threads, or null if the JVM has none.
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private final Timer[] stages = new Timer[Stage.values().length];
+	private final Counter seams;
+	private final Histogram seamsPerSecond;
+	private final Counter allocatedBytes;
+	private final Histogram bufferBytes;
+
+	private final long created;
+	private final long allocatedBefore;
+	private final long bufferBytesBefore;
+
+	// The metrics of a carver created now, whose buffers come from store, or null if metrics is null.
+	static CarverMetrics of(Metrics metrics, CarverStore store) {
+		return metrics == null ? null : new CarverMetrics(metrics, store);
+	}
+
+	private CarverMetrics(Metrics metrics, CarverStore store) {
+		for (Stage stage : Stage.values())
+			stages[stage.ordinal()] = metrics.timer("seam_carver_" + stage.name + "_seconds", stage.help);
+		seams = metrics.counter("seam_carver_seams_total", "Seams carved");
+		seamsPerSecond = metrics.histogram("seam_carver_seams_per_second",
+				"Seams carved per second by a carver, from its creation to its image", 1, 10, 100, 1e3, 1e4, 1e5);
+		allocatedBytes = metrics.counter("seam_carver_allocated_bytes_total", "Bytes allocated by the carving threads");
+		bufferBytes = metrics.histogram("seam_carver_buffer_bytes", "Bytes of the working buffers of a carver",
+				1L << 16, 1L << 18, 1L << 20, 1L << 22, 1L << 24, 1L << 26, 1L << 28, 1L << 30, 1L << 32);
+		created = System.nanoTime();
+		allocatedBefore = allocated();
+		bufferBytesBefore = store.getHeapBytes() + store.getMappedBytes();
+	}
+
+	// Records the time since start as the given stage, and returns the current time.
+	long stop(Stage stage, long start) {
+		return stages[stage.ordinal()].stop(start);
+	}
+
+	void finished(int carvedSeams, CarverStore store) {
+		seams.add(carvedSeams);
+		double seconds = (System.nanoTime() - created) / 1e9;
+		if (carvedSeams > 0 && seconds > 0)
+			seamsPerSecond.observe(carvedSeams / seconds);
+		if (THREADS != null)
+			allocatedBytes.add(Math.max(allocated() - allocatedBefore, 0));
+		bufferBytes.observe(store.getHeapBytes() + store.getMappedBytes() - bufferBytesBefore);
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		return allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()
+				? allocations : null;
+	}
+
+	private static long allocated() {
+		return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+	}
+}
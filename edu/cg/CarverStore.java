@@ -0,0 +1,389 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Allocates the per pixel working buffers of a seams carver (grey values, origins, energies, costs and back
+// pointers). Buffers are allocated on the heap as long as they fit the heap budget, and the ones that do not
+// are mapped from a temporary file, so the carver of a huge image works on pages the OS can write back to disk
+// instead of on the heap. The file is deleted as soon as it is mapped: the mapping stays valid and the disk
+// space is freed when the buffer is garbage collected.
+// With a pool, the heap buffers are taken from the pool and given back to it by release(). A pooled int or
+// double buffer keeps the values of its previous use, which the carver always writes before reading; byte
+// buffers are cleared, as the taken pixels of the carver rely on it.
+public class CarverStore {
+	// A mapping holds at most 2^SEGMENT_SHIFT elements, which keeps the byte offsets of doubles in an int.
+	private static final int SEGMENT_SHIFT = 27;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+	private final long heapBudget;
+	private final Path directory;
+	private final CarverBufferPool pool;
+	private final List<Object> pooled = new ArrayList<>();
+	private long heapBytes = 0;
+	private long mappedBytes = 0;
+
+	// Maps the buffers exceeding heapBudget bytes in a temporary file of the given directory (the default
+	// temporary directory if null).
+	public CarverStore(long heapBudget, Path directory) {
+		this(heapBudget, directory, null);
+	}
+
+	// Takes the heap buffers from the pool if it is not null.
+	public CarverStore(long heapBudget, Path directory, CarverBufferPool pool) {
+		if (heapBudget < 0)
+			throw new IllegalArgumentException("The heap budget can not be negative.");
+		this.heapBudget = heapBudget;
+		this.directory = directory;
+		this.pool = pool;
+	}
+
+	// A store with the same heap budget, directory and pool, whose buffers are released on their own.
+	CarverStore fork() {
+		return new CarverStore(heapBudget, directory, pool);
+	}
+
+	public static CarverStore onHeap() {
+		return new CarverStore(Long.MAX_VALUE, null);
+	}
+
+	public long getHeapBytes() {
+		return heapBytes;
+	}
+
+	public long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	public IntArray newIntArray(int length) {
+		if (!fitsHeap(length, Integer.BYTES))
+			return new MappedIntArray(map(length, Integer.BYTES), length);
+		if (pool == null)
+			return new HeapIntArray(new int[length], length);
+		int[] values = pool.takeInts(length);
+		pooled.add(values);
+		return new HeapIntArray(values, length);
+	}
+
+	public DoubleArray newDoubleArray(int length) {
+		if (!fitsHeap(length, Double.BYTES))
+			return new MappedDoubleArray(map(length, Double.BYTES), length);
+		if (pool == null)
+			return new HeapDoubleArray(new double[length], length);
+		double[] values = pool.takeDoubles(length);
+		pooled.add(values);
+		return new HeapDoubleArray(values, length);
+	}
+
+	public ByteArray newByteArray(int length) {
+		if (!fitsHeap(length, Byte.BYTES))
+			return new MappedByteArray(map(length, Byte.BYTES), length);
+		if (pool == null)
+			return new HeapByteArray(new byte[length], length);
+		byte[] values = pool.takeBytes(length);
+		Arrays.fill(values, 0, length, (byte) 0);
+		pooled.add(values);
+		return new HeapByteArray(values, length);
+	}
+
+	// Gives the heap buffers back to the pool. The buffers of this store must not be used anymore.
+	public void release() {
+		if (pool == null)
+			return;
+		for (Object values : pooled) {
+			if (values instanceof int[])
+				pool.give((int[]) values);
+			else if (values instanceof double[])
+				pool.give((double[]) values);
+			else
+				pool.give((byte[]) values);
+		}
+		pooled.clear();
+	}
+
+	private boolean fitsHeap(int length, int elementBytes) {
+		long bytes = (long) length * elementBytes;
+		if (heapBytes + bytes > heapBudget)
+			return false;
+		heapBytes += bytes;
+		return true;
+	}
+
+	private MappedByteBuffer[] map(int length, int elementBytes) {
+		int segments = (int) (((long) length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] buffers = new MappedByteBuffer[Math.max(segments, 1)];
+		try {
+			Path file = directory == null ? Files.createTempFile("carver", ".buf")
+					: Files.createTempFile(directory, "carver", ".buf");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				for (int s = 0; s < buffers.length; s++) {
+					long first = (long) s << SEGMENT_SHIFT;
+					long size = Math.min(length - first, 1L << SEGMENT_SHIFT) * elementBytes;
+					buffers[s] = channel.map(FileChannel.MapMode.READ_WRITE, first * elementBytes, size);
+					buffers[s].order(ByteOrder.nativeOrder());
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not map a carver buffer.", e);
+		}
+		mappedBytes += (long) length * elementBytes;
+		return buffers;
+	}
+
+	//MARK: Buffers
+	public static abstract class IntArray {
+		public final int length;
+
+		private IntArray(int length) {
+			this.length = length;
+		}
+
+		public static IntArray wrap(int[] values) {
+			return new HeapIntArray(values, values.length);
+		}
+
+		public abstract int get(int i);
+
+		public abstract void set(int i, int value);
+
+		// Copies length elements from index from to index to, as System.arraycopy does within an array.
+		public abstract void copy(int from, int to, int length);
+
+		// The backing array of a heap buffer, for the row kernels, or null for a mapped one. A pooled array may be
+		// longer than the buffer.
+		int[] heapArray() {
+			return null;
+		}
+
+		// Copies length elements between two different arrays.
+		public static void copy(IntArray source, int from, IntArray destination, int to, int length) {
+			if (source instanceof HeapIntArray && destination instanceof HeapIntArray) {
+				System.arraycopy(((HeapIntArray) source).values, from, ((HeapIntArray) destination).values, to, length);
+				return;
+			}
+			for (int i = 0; i < length; i++)
+				destination.set(to + i, source.get(from + i));
+		}
+	}
+
+	public static abstract class DoubleArray {
+		public final int length;
+
+		private DoubleArray(int length) {
+			this.length = length;
+		}
+
+		public abstract double get(int i);
+
+		public abstract void set(int i, double value);
+
+		// Copies length elements from index from to index to, as System.arraycopy does within an array.
+		public abstract void copy(int from, int to, int length);
+
+		// The backing array of a heap buffer, for the row kernels, or null for a mapped one. A pooled array may be
+		// longer than the buffer.
+		double[] heapArray() {
+			return null;
+		}
+	}
+
+	public static abstract class ByteArray {
+		public final int length;
+
+		private ByteArray(int length) {
+			this.length = length;
+		}
+
+		public abstract byte get(int i);
+
+		public abstract void set(int i, byte value);
+
+		// Copies length elements from index from to index to, as System.arraycopy does within an array.
+		public abstract void copy(int from, int to, int length);
+	}
+
+	private static final class HeapIntArray extends IntArray {
+		private final int[] values;
+
+		public HeapIntArray(int[] values, int length) {
+			super(length);
+			this.values = values;
+		}
+
+		@Override
+		public int get(int i) {
+			return values[i];
+		}
+
+		@Override
+		public void set(int i, int value) {
+			values[i] = value;
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			System.arraycopy(values, from, values, to, length);
+		}
+
+		@Override
+		int[] heapArray() {
+			return values;
+		}
+	}
+
+	private static final class HeapDoubleArray extends DoubleArray {
+		private final double[] values;
+
+		public HeapDoubleArray(double[] values, int length) {
+			super(length);
+			this.values = values;
+		}
+
+		@Override
+		public double get(int i) {
+			return values[i];
+		}
+
+		@Override
+		public void set(int i, double value) {
+			values[i] = value;
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			System.arraycopy(values, from, values, to, length);
+		}
+
+		@Override
+		double[] heapArray() {
+			return values;
+		}
+	}
+
+	private static final class HeapByteArray extends ByteArray {
+		private final byte[] values;
+
+		public HeapByteArray(byte[] values, int length) {
+			super(length);
+			this.values = values;
+		}
+
+		@Override
+		public byte get(int i) {
+			return values[i];
+		}
+
+		@Override
+		public void set(int i, byte value) {
+			values[i] = value;
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			System.arraycopy(values, from, values, to, length);
+		}
+	}
+
+	private static final class MappedIntArray extends IntArray {
+		private final MappedByteBuffer[] segments;
+
+		public MappedIntArray(MappedByteBuffer[] segments, int length) {
+			super(length);
+			this.segments = segments;
+		}
+
+		@Override
+		public int get(int i) {
+			return segments[i >>> SEGMENT_SHIFT].getInt((i & SEGMENT_MASK) * Integer.BYTES);
+		}
+
+		@Override
+		public void set(int i, int value) {
+			segments[i >>> SEGMENT_SHIFT].putInt((i & SEGMENT_MASK) * Integer.BYTES, value);
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			if (to < from) {
+				for (int i = 0; i < length; i++)
+					set(to + i, get(from + i));
+			}
+			else {
+				for (int i = length - 1; i >= 0; i--)
+					set(to + i, get(from + i));
+			}
+		}
+	}
+
+	private static final class MappedDoubleArray extends DoubleArray {
+		private final MappedByteBuffer[] segments;
+
+		public MappedDoubleArray(MappedByteBuffer[] segments, int length) {
+			super(length);
+			this.segments = segments;
+		}
+
+		@Override
+		public double get(int i) {
+			return segments[i >>> SEGMENT_SHIFT].getDouble((i & SEGMENT_MASK) * Double.BYTES);
+		}
+
+		@Override
+		public void set(int i, double value) {
+			segments[i >>> SEGMENT_SHIFT].putDouble((i & SEGMENT_MASK) * Double.BYTES, value);
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			if (to < from) {
+				for (int i = 0; i < length; i++)
+					set(to + i, get(from + i));
+			}
+			else {
+				for (int i = length - 1; i >= 0; i--)
+					set(to + i, get(from + i));
+			}
+		}
+	}
+
+	private static final class MappedByteArray extends ByteArray {
+		private final MappedByteBuffer[] segments;
+
+		public MappedByteArray(MappedByteBuffer[] segments, int length) {
+			super(length);
+			this.segments = segments;
+		}
+
+		@Override
+		public byte get(int i) {
+			return segments[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+		}
+
+		@Override
+		public void set(int i, byte value) {
+			segments[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+		}
+
+		@Override
+		public void copy(int from, int to, int length) {
+			if (to < from) {
+				for (int i = 0; i < length; i++)
+					set(to + i, get(from + i));
+			}
+			else {
+				for (int i = length - 1; i >= 0; i--)
+					set(to + i, get(from + i));
+			}
+		}
+	}
+}
@@ -2,12 +2,44 @@ package edu.cg;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class FunctioalForEachLoops {
 	private int width;
 	private int height;
+	// The executor the row bands of the primitive loops run on, or null to run them on the calling thread.
+	private Executor executor;
+	private int bands;
+	
+	// Primitive actions for the pixel loops, so no Integer is boxed per visited pixel.
+	@FunctionalInterface
+	public interface IntBinaryConsumer {
+		public void accept(int y, int x);
+	}
+	
+	@FunctionalInterface
+	public interface RowSpanConsumer {
+		// Visits the pixels [fromX, toX) of row y.
+		public void accept(int y, int fromX, int toX);
+	}
+	
+	@FunctionalInterface
+	public interface RowBandConsumer {
+		// Visits the rows [fromY, toY).
+		public void accept(int fromY, int toY);
+	}
+	
+	private interface RowBand {
+		public void run(int fromY, int toY);
+	}
 	
 	private class Params {
 		public final int width, height;
@@ -28,6 +60,51 @@ public class FunctioalForEachLoops {
 	public FunctioalForEachLoops() {
 		width = height = 0;
 		stack = new ArrayDeque<>();
+		executor = null;
+		bands = 1;
+	}
+	
+	// Splits the height of forEachPixel, forEachTile and forEachRowSpan into row bands that run on the
+	// executor, one band per available processor. The actions must then be safe to run on distinct rows
+	// concurrently. A null executor runs the loops sequentially again.
+	public final void setForEachExecutor(Executor executor) {
+		setForEachExecutor(executor, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public final void setForEachExecutor(Executor executor, int bands) {
+		if(bands < 1)
+			throw new IllegalArgumentException("The number of row bands must be positive.");
+		this.executor = executor;
+		this.bands = executor == null ? 1 : bands;
+	}
+	
+	public final Executor getForEachExecutor() {
+		return executor;
+	}
+	
+	public static Executor commonPoolExecutor() {
+		return ForkJoinPool.commonPool();
+	}
+	
+	public static ExecutorService fixedPoolExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, daemonThreads());
+	}
+	
+	// A virtual thread per band where the runtime has them (Java 21 and on), a pooled platform thread otherwise.
+	public static ExecutorService virtualThreadsExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(daemonThreads());
+		}
+	}
+	
+	private static ThreadFactory daemonThreads() {
+		return runnable -> {
+			Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		};
 	}
 	
 	public final void setForEachParameters(int width, int height) {
@@ -67,6 +144,74 @@ public class FunctioalForEachLoops {
 		);
 	}
 	
+	public final void forEachPixel(IntBinaryConsumer action) {
+		int width = this.width;
+		forEachBand(height, (fromY, toY) -> {
+			for(int y = fromY; y < toY; ++y)
+				for(int x = 0; x < width; ++x)
+					action.accept(y, x);
+		});
+	}
+	
+	// Visits the pixels tile by tile, each tile row by row. The bands are made of whole rows of tiles.
+	public final void forEachTile(int tileWidth, int tileHeight, IntBinaryConsumer action) {
+		if(tileWidth < 1 | tileHeight < 1)
+			throw new IllegalArgumentException("The tile dimensions must be positive.");
+		int width = this.width, height = this.height;
+		forEachBand((height + tileHeight - 1) / tileHeight, (fromTile, toTile) -> {
+			int bandEnd = Math.min(toTile * tileHeight, height);
+			for(int tileY = fromTile * tileHeight; tileY < bandEnd; tileY += tileHeight)
+				for(int tileX = 0; tileX < width; tileX += tileWidth) {
+					int endY = Math.min(tileY + tileHeight, height);
+					int endX = Math.min(tileX + tileWidth, width);
+					for(int y = tileY; y < endY; ++y)
+						for(int x = tileX; x < endX; ++x)
+							action.accept(y, x);
+				}
+		});
+	}
+	
+	// Visits every row as a single span, leaving the loop over the row to the action.
+	public final void forEachRowSpan(RowSpanConsumer action) {
+		int width = this.width;
+		forEachBand(height, (fromY, toY) -> {
+			for(int y = fromY; y < toY; ++y)
+				action.accept(y, 0, width);
+		});
+	}
+	
+	// Visits the rows band by band, leaving the loop over the rows of a band to the action, so it can keep
+	// state (a row buffer) for the whole band.
+	public final void forEachRowBand(RowBandConsumer action) {
+		forEachBand(height, action::accept);
+	}
+	
+	// Runs the first band on the calling thread and the others on the executor, and returns after all are done.
+	private void forEachBand(int rows, RowBand band) {
+		int count = Math.min(bands, rows);
+		if(executor == null | count < 2) {
+			band.run(0, rows);
+			return;
+		}
+		CompletableFuture<?>[] others = new CompletableFuture<?>[count - 1];
+		for(int i = 1; i < count; ++i) {
+			int fromY = (int)((long)rows * i / count);
+			int toY = (int)((long)rows * (i + 1) / count);
+			others[i - 1] = CompletableFuture.runAsync(() -> band.run(fromY, toY), executor);
+		}
+		try {
+			band.run(0, rows / count);
+		} finally {
+			try {
+				CompletableFuture.allOf(others).join();
+			} catch(CompletionException e) {
+				if(e.getCause() instanceof RuntimeException)
+					throw (RuntimeException)e.getCause();
+				throw e;
+			}
+		}
+	}
+	
 	public final void forEachWidth(Consumer<Integer> action) {
 		for(int x = 0; x < width; ++x)
 			action.accept(x);
@@ -1,6 +1,5 @@
 package edu.cg;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 
 public class ImageProcessor extends FunctioalForEachLoops {
@@ -48,14 +47,15 @@ public class ImageProcessor extends FunctioalForEachLoops {
         int max = rgbWeights.maxWeight;
 
         BufferedImage ans = newEmptyInputSizedImage();
-
-        forEach((y, x) -> {
-            Color c = new Color(workingImage.getRGB(x, y));
-            int red = r * c.getRed() / max;
-            int green = g * c.getGreen() / max;
-            int blue = b * c.getBlue() / max;
-            Color color = new Color(red, green, blue);
-            ans.setRGB(x, y, color.getRGB());
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(ans);
+
+        forEachPixel((y, x) -> {
+            int c = in.getRGB(x, y);
+            int red = r * ((c >> 16) & 0xFF) / max;
+            int green = g * ((c >> 8) & 0xFF) / max;
+            int blue = b * (c & 0xFF) / max;
+            out.setRGB(x, y, opaqueRGB(red, green, blue));
         });
 
         logger.log("Changing hue done!");
@@ -67,16 +67,16 @@ public class ImageProcessor extends FunctioalForEachLoops {
     public BufferedImage nearestNeighbor() {
         logger.log("applies nearest neighbor interpolation.");
         BufferedImage ans = newEmptyOutputSizedImage();
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(ans);
 
         pushForEachParameters();
         setForEachOutputParameters();
 
-        forEach((y, x) -> {
-            int imgX = (int) Math.round((x * inWidth) / ((float) outWidth));
-            int imgY = (int) Math.round((y * inHeight) / ((float) outHeight));
-            imgX = Math.min(imgX, inWidth - 1);
-            imgY = Math.min(imgY, inHeight - 1);
-            ans.setRGB(x, y, workingImage.getRGB(imgX, imgY));
+        forEachPixel((y, x) -> {
+            int imgX = nearestNeighborSource(x, inWidth, outWidth);
+            int imgY = nearestNeighborSource(y, inHeight, outHeight);
+            out.setRGB(x, y, in.getRGB(imgX, imgY));
         });
 
         popForEachParameters();
@@ -88,20 +88,13 @@ public class ImageProcessor extends FunctioalForEachLoops {
     public BufferedImage greyscale() {
         logger.log("Prepareing for greyscale changing...");
 
-        int r = rgbWeights.redWeight;
-        int g = rgbWeights.greenWeight;
-        int b = rgbWeights.blueWeight;
-
         BufferedImage ans = newEmptyInputSizedImage();
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(ans);
 
-        forEach((y, x) -> {
-            Color c = new Color(workingImage.getRGB(x, y));
-            int red = r * c.getRed();
-            int green = g * c.getGreen();
-            int blue = b * c.getBlue();
-            int grey = (red + green + blue) / rgbWeights.weightsSum;
-            Color color = new Color(grey, grey, grey);
-            ans.setRGB(x, y, color.getRGB());
+        forEachPixel((y, x) -> {
+            int grey = greyValue(in.getRGB(x, y));
+            out.setRGB(x, y, opaqueRGB(grey, grey, grey));
         });
 
         logger.log("Changing greyscale done!");
@@ -116,41 +109,35 @@ public class ImageProcessor extends FunctioalForEachLoops {
 
         logger.log("Calculating gradient magnitude...");
 
-        BufferedImage greyImg = greyscale(); // greyscale the original image
         BufferedImage ans = newEmptyInputSizedImage(); // the new image to be output
-
-        forEach((y, x) -> {
-            Color c = new Color(greyImg.getRGB(x, y));
-            Color prevHorizontalColor;
-            Color prevVerticalColor;
-            int dx, dy;
-            // edge pixel
-            if (x == 0 && y == 0) {
-                ans.setRGB(x, y, c.getRGB());
-            } else {
-                // calculates horizontal derivative
-                if (x != 0) {
-                    prevHorizontalColor = new Color(greyImg.getRGB(x - 1, y));
-                    dx = c.getRed() - prevHorizontalColor.getRed();
-                } else {
-                    dx = 0;
-                }
-                // calculates vertical derivative
-                if (y != 0) {
-                    prevVerticalColor = new Color(greyImg.getRGB(x, y - 1));
-                    dy = (c.getRed() - prevVerticalColor.getRed());
-                } else {
-                    dy = 0;
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(ans);
+
+        // greyscale the original image, then derive it a row at a time with the row kernels. The derivatives
+        // are of the red channel of the greyscale image, rounded as the working image type stores it.
+        int width = inWidth;
+        int[] grey = new int[inWidth * inHeight];
+        int[] storedGrey = storedGreyPixels();
+        forEachRowSpan((y, fromX, toX) -> {
+            for (int x = fromX; x < toX; x++) {
+                int value = greyValue(in.getRGB(x, y));
+                grey[y * width + x] = storedGrey == null ? value : (storedGrey[value] >> 16) & 0xFF;
+            }
+        });
+        RowKernels kernels = RowKernels.get();
+        forEachRowBand((fromY, toY) -> {
+            int[] row = new int[width];
+            for (int y = fromY; y < toY; y++) {
+                kernels.gradients(grey, y * width, y == 0 ? -1 : (y - 1) * width, width, row);
+                for (int x = 0; x < width; x++) {
+                    out.setRGB(x, y, row[x]);
                 }
-                // both gradients calculation
-                int res = (int) Math.sqrt((Math.pow(dx, 2) + Math.pow(dy, 2)) / 2);
-                int magnitude = Math.abs(res);
-                // new grey pixel
-                Color color = new Color(magnitude, magnitude, magnitude);
-
-                ans.setRGB(x, y, color.getRGB());
             }
         });
+        // the corner has no derivatives and keeps the pixel of the greyscale image, with all its channels
+        if (storedGrey != null) {
+            out.setRGB(0, 0, storedGrey[greyValue(in.getRGB(0, 0))]);
+        }
 
         logger.log("Calculating gradient magnitude done!");
 
@@ -165,35 +152,53 @@ public class ImageProcessor extends FunctioalForEachLoops {
         pushForEachParameters();
         setForEachOutputParameters();
         BufferedImage ans = newEmptyOutputSizedImage();
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(ans);
 
-        forEach((y, x) -> {
+        forEachPixel((y, x) -> {
             // a pixel's coordinates in the resized image
-            float imgX = x * inWidth / (float) outWidth;
-            float imgY = y * inHeight / (float) outHeight;
-            // creating a combination of 4 points
-            int x1 = (int) Math.floor(imgX);
-            int y1 = (int) Math.floor(imgY);
-            int x2 = (int) Math.ceil(imgX);
-            int y2 = (int) Math.ceil(imgY);
-            // the new rgb value in y=y1 between x1,x2
-            int c11 = this.workingImage.getRGB(x1, y1);
-            int c21 = this.workingImage.getRGB(x2, y1);
-            int dx1 = distanceWeight(x2 - imgX, c11, c21);
-            // the new rgb value in y=y2 between x1,x2
-            int c12 = this.workingImage.getRGB(x1, y2);
-            int c22 = this.workingImage.getRGB(x2, y2);
-            int dx2 = distanceWeight(x2 - imgX, c12, c22);
-            // the final rgb value for the chosen point to represent a pixel
-            int dy = distanceWeight(y2 - imgY, dx1, dx2);
-
-            ans.setRGB(x, y, dy);
+            float imgX = bilinearSource(x, inWidth, outWidth);
+            float imgY = bilinearSource(y, inHeight, outHeight);
+            out.setRGB(x, y, bilinearPixel(in, 0, 0, inWidth, inHeight, imgX, imgY));
         });
 
         popForEachParameters();
         return ans;
     }
 
-    private int distanceWeight(float d, int c1, int c2) {
+    // The column (or row) of the input the nearest neighbor takes output column x from.
+    public static int nearestNeighborSource(int x, int inSize, int outSize) {
+        int imgX = (int) Math.round((x * (long) inSize) / ((float) outSize));
+        return Math.min(imgX, inSize - 1);
+    }
+
+    // The coordinate in the input of output column (or row) x.
+    public static float bilinearSource(int x, int inSize, int outSize) {
+        return x * (long) inSize / (float) outSize;
+    }
+
+    // The bilinear interpolation at (imgX, imgY) of an inWidth x inHeight image, whose pixels from
+    // (originX, originY) on are held by in.
+    public static int bilinearPixel(PixelRaster in, int originX, int originY,
+                                    int inWidth, int inHeight, float imgX, float imgY) {
+        // creating a combination of 4 points, the far ones clamped to the last column and row
+        int x1 = (int) Math.floor(imgX);
+        int y1 = (int) Math.floor(imgY);
+        int x2 = Math.min((int) Math.ceil(imgX), inWidth - 1);
+        int y2 = Math.min((int) Math.ceil(imgY), inHeight - 1);
+        // the new rgb value in y=y1 between x1,x2
+        int c11 = in.getRGB(x1 - originX, y1 - originY);
+        int c21 = in.getRGB(x2 - originX, y1 - originY);
+        int dx1 = distanceWeight(x2 - imgX, c11, c21);
+        // the new rgb value in y=y2 between x1,x2
+        int c12 = in.getRGB(x1 - originX, y2 - originY);
+        int c22 = in.getRGB(x2 - originX, y2 - originY);
+        int dx2 = distanceWeight(x2 - imgX, c12, c22);
+        // the final rgb value for the chosen point to represent a pixel
+        return distanceWeight(y2 - imgY, dx1, dx2);
+    }
+
+    private static int distanceWeight(float d, int c1, int c2) {
         // gets rgb for one edge pixel
         int r1 = (c1 >> 16) & 255;
         int g1 = (c1 >> 8) & 255;
@@ -215,6 +220,38 @@ public class ImageProcessor extends FunctioalForEachLoops {
     }
 
     //MARK: Utilities
+    // The grey value of a default RGB int, weighted by the rgb weights.
+    protected final int greyValue(int rgb) {
+        int red = rgbWeights.redWeight * ((rgb >> 16) & 0xFF);
+        int green = rgbWeights.greenWeight * ((rgb >> 8) & 0xFF);
+        int blue = rgbWeights.blueWeight * (rgb & 0xFF);
+        return (red + green + blue) / rgbWeights.weightsSum;
+    }
+
+    // The pixels of greyscale() for the grey values 0 to 255, as the working image type stores them: the types
+    // with less than 8 bits per channel (565, 555) or a palette round a grey pixel, and the operations derived
+    // from the greyscale image use the rounded one. Null if the type stores every grey pixel exactly.
+    protected final int[] storedGreyPixels() {
+        if (workingImageType == BufferedImage.TYPE_CUSTOM) {
+            return null;
+        }
+        BufferedImage pixel = newEmptyImage(1, 1);
+        int[] stored = new int[256];
+        boolean exact = true;
+        for (int grey = 0; grey < stored.length; grey++) {
+            int rgb = opaqueRGB(grey, grey, grey);
+            pixel.setRGB(0, 0, rgb);
+            stored[grey] = 0xFF000000 | pixel.getRGB(0, 0);
+            exact &= stored[grey] == rgb;
+        }
+        return exact ? null : stored;
+    }
+
+    // The default RGB int of an opaque color, as new Color(red, green, blue).getRGB() returns it.
+    protected static int opaqueRGB(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
     public final void setForEachInputParameters() {
         setForEachParameters(inWidth, inHeight);
     }
@@ -237,9 +274,11 @@ public class ImageProcessor extends FunctioalForEachLoops {
 
     public final BufferedImage duplicateWorkingImage() {
         BufferedImage output = newEmptyInputSizedImage();
+        PixelRaster in = PixelRaster.of(workingImage);
+        PixelRaster out = PixelRaster.of(output);
 
-        forEach((y, x) ->
-                output.setRGB(x, y, workingImage.getRGB(x, y))
+        forEachPixel((y, x) ->
+                out.setRGB(x, y, in.getRGB(x, y))
         );
 
         return output;
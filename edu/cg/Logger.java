@@ -6,4 +6,9 @@ public interface Logger {
 	public default void log(Object obj) {
 		log(obj == null ? "null" : obj.toString());
 	}
+	
+	// The metrics the operations logging here record to, or null. See Metrics.logger.
+	public default Metrics metrics() {
+		return null;
+	}
 }
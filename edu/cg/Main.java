@@ -1,12 +1,17 @@
 package edu.cg;
+import edu.cg.batch.BatchMain;
 import edu.cg.menu.MenuWindow;
 
 public class Main {
 	
 	/**
-	 * Launch the application.
+	 * Launch the application, or process a directory of images headless when arguments are given.
 	 */
 	public static void main(String[] args) {
+		if(args.length > 0) {
+			BatchMain.main(args);
+			return;
+		}
 		MenuWindow mw = new MenuWindow();
 		mw.setVisible(true);
 	}
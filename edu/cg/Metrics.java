@@ -0,0 +1,246 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Counters, histograms and timers of the image operations, dumped in the Prometheus text format.
+// The operations find the metrics through their logger (see Logger.metrics), so giving metrics.logger(logger)
+// to a carver or to the engine gives the metrics to every carver of the request. A timer also commits a JFR
+// event for every duration it records, so a flight recording shows the stages on the threads that ran them.
+// A metric is registered by its first lookup, looking it up again returns the same metric. All the metrics are
+// thread safe.
+public class Metrics {
+	private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+	public Counter counter(String name, String help) {
+		return register(name, Counter.class, () -> new Counter(name, help));
+	}
+
+	// The buckets are the upper bounds of the observed values, in increasing order.
+	public Histogram histogram(String name, String help, double... buckets) {
+		return register(name, Histogram.class, () -> new Histogram(name, help, buckets));
+	}
+
+	// A histogram of durations in seconds, from 10 microseconds to 10 seconds.
+	public Timer timer(String name, String help) {
+		return register(name, Timer.class, () -> new Timer(name, help));
+	}
+
+	private synchronized <T extends Metric> T register(String name, Class<T> type, Supplier<T> create) {
+		Metric metric = metrics.get(name);
+		if (metric == null) {
+			metric = create.get();
+			metrics.put(name, metric);
+		}
+		else if (metric.getClass() != type) {
+			throw new IllegalArgumentException("The metric " + name + " is a " + metric.type() + ".");
+		}
+		return type.cast(metric);
+	}
+
+	// A logger logging to logger, whose operations record their metrics here.
+	public Logger logger(Logger logger) {
+		Metrics metrics = this;
+		return new Logger() {
+			@Override
+			public void log(String s) {
+				logger.log(s);
+			}
+
+			@Override
+			public Metrics metrics() {
+				return metrics;
+			}
+		};
+	}
+
+	//MARK: Export
+	public synchronized String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		for (Metric metric : metrics.values()) {
+			text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+			text.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+			metric.appendSamples(text);
+		}
+		return text.toString();
+	}
+
+	// Writes the dump to a temporary file moved onto file, so a collector reading the file never sees half of it.
+	public void write(Path file) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		Files.write(temp, toPrometheusText().getBytes(StandardCharsets.UTF_8));
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static String format(double value) {
+		if (value == Double.POSITIVE_INFINITY)
+			return "+Inf";
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	//MARK: Metrics
+	public static abstract class Metric {
+		public final String name;
+		public final String help;
+
+		private Metric(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		abstract String type();
+
+		abstract void appendSamples(StringBuilder text);
+	}
+
+	public static final class Counter extends Metric {
+		private final LongAdder value = new LongAdder();
+
+		private Counter(String name, String help) {
+			super(name, help);
+		}
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(long amount) {
+			if (amount < 0)
+				throw new IllegalArgumentException("A counter can not decrease.");
+			value.add(amount);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		@Override
+		String type() {
+			return "counter";
+		}
+
+		@Override
+		void appendSamples(StringBuilder text) {
+			text.append(name).append(' ').append(get()).append('\n');
+		}
+	}
+
+	public static class Histogram extends Metric {
+		private final double[] buckets;
+		// counts[i] counts the values in (buckets[i - 1], buckets[i]], the last one the values above all buckets
+		private final LongAdder[] counts;
+		private final DoubleAdder sum = new DoubleAdder();
+
+		private Histogram(String name, String help, double[] buckets) {
+			super(name, help);
+			for (int i = 1; i < buckets.length; i++)
+				if (buckets[i] <= buckets[i - 1])
+					throw new IllegalArgumentException("The buckets of a histogram must be increasing.");
+			this.buckets = buckets.clone();
+			counts = new LongAdder[buckets.length + 1];
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = new LongAdder();
+		}
+
+		public void observe(double value) {
+			int bucket = Arrays.binarySearch(buckets, value);
+			counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+			sum.add(value);
+		}
+
+		public long getCount() {
+			long count = 0;
+			for (LongAdder bucket : counts)
+				count += bucket.sum();
+			return count;
+		}
+
+		public double getSum() {
+			return sum.sum();
+		}
+
+		@Override
+		String type() {
+			return "histogram";
+		}
+
+		// The bucket samples are cumulative: the count of a bucket includes the counts of the ones below it.
+		@Override
+		void appendSamples(StringBuilder text) {
+			long cumulative = 0;
+			for (int i = 0; i <= buckets.length; i++) {
+				cumulative += counts[i].sum();
+				double bound = i < buckets.length ? buckets[i] : Double.POSITIVE_INFINITY;
+				text.append(name).append("_bucket{le=\"").append(format(bound)).append("\"} ")
+						.append(cumulative).append('\n');
+			}
+			text.append(name).append("_sum ").append(format(getSum())).append('\n');
+			text.append(name).append("_count ").append(cumulative).append('\n');
+		}
+	}
+
+	public static final class Timer extends Histogram {
+		private static final double[] SECONDS = {
+				1e-5, 2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3, 2.5e-3, 5e-3, 1e-2, 2.5e-2, 5e-2,
+				0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+		private Timer(String name, String help) {
+			super(name, help, SECONDS);
+		}
+
+		public void record(long nanos) {
+			observe(nanos / 1e9);
+			TimerEvent event = new TimerEvent();
+			if (event.shouldCommit()) {
+				event.metric = name;
+				event.elapsed = nanos;
+				event.commit();
+			}
+		}
+
+		// Records the time since start (a System.nanoTime) and returns the current time, which starts the next
+		// stage timed after this one.
+		public long stop(long start) {
+			long now = System.nanoTime();
+			record(now - start);
+			return now;
+		}
+	}
+
+	// Committed when a timer records a duration, at the end of that duration. The event itself is instant, the
+	// recorded duration is its elapsed field (Event reserves the name duration).
+	@Name("edu.cg.Timer")
+	@Label("Timer")
+	@Category("Image Processing")
+	@Description("A duration recorded by a timer of the metrics.")
+	static final class TimerEvent extends Event {
+		@Label("Metric")
+		String metric;
+
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+}
@@ -0,0 +1,130 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+// Reads and writes the pixels of a BufferedImage as default RGB ints, with the semantics of getRGB / setRGB.
+// For the int RGB / ARGB and the interleaved byte BGR / ABGR image types the pixels are accessed directly
+// in the backing array of the raster, skipping the color model conversion getRGB / setRGB do on every call.
+// Any other image (or a raster that is a view into a bigger one) falls back to getRGB / setRGB.
+public abstract class PixelRaster {
+	public final int width;
+	public final int height;
+
+	private PixelRaster(BufferedImage img) {
+		width = img.getWidth();
+		height = img.getHeight();
+	}
+
+	public static PixelRaster of(BufferedImage img) {
+		WritableRaster raster = img.getRaster();
+		boolean plainRaster = raster.getParent() == null
+				&& raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& raster.getDataBuffer().getNumBanks() == 1 && raster.getDataBuffer().getOffset() == 0;
+		if (!plainRaster)
+			return new Fallback(img);
+
+		switch (img.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+			return new IntPacked(img, false);
+		case BufferedImage.TYPE_INT_ARGB:
+			return new IntPacked(img, true);
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			return new ByteInterleaved(img);
+		default:
+			return new Fallback(img);
+		}
+	}
+
+	public abstract int getRGB(int x, int y);
+
+	public abstract void setRGB(int x, int y, int rgb);
+
+	private static final class IntPacked extends PixelRaster {
+		private final int[] data;
+		private final int scanlineStride;
+		private final int alphaMask;
+		private final int opaqueBits;
+
+		public IntPacked(BufferedImage img, boolean hasAlpha) {
+			super(img);
+			data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+			scanlineStride = ((SinglePixelPackedSampleModel) img.getSampleModel()).getScanlineStride();
+			alphaMask = hasAlpha ? 0xFFFFFFFF : 0x00FFFFFF;
+			opaqueBits = hasAlpha ? 0 : 0xFF000000;
+		}
+
+		@Override
+		public int getRGB(int x, int y) {
+			return data[y * scanlineStride + x] | opaqueBits;
+		}
+
+		@Override
+		public void setRGB(int x, int y, int rgb) {
+			data[y * scanlineStride + x] = rgb & alphaMask;
+		}
+	}
+
+	private static final class ByteInterleaved extends PixelRaster {
+		private final byte[] data;
+		private final int scanlineStride;
+		private final int pixelStride;
+		private final int red, green, blue;
+		// The offset of the alpha band, or -1 for an opaque image.
+		private final int alpha;
+
+		public ByteInterleaved(BufferedImage img) {
+			super(img);
+			ComponentSampleModel sampleModel = (ComponentSampleModel) img.getSampleModel();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+			scanlineStride = sampleModel.getScanlineStride();
+			pixelStride = sampleModel.getPixelStride();
+			red = bandOffsets[0];
+			green = bandOffsets[1];
+			blue = bandOffsets[2];
+			alpha = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+		}
+
+		@Override
+		public int getRGB(int x, int y) {
+			int i = y * scanlineStride + x * pixelStride;
+			int a = alpha < 0 ? 0xFF : data[i + alpha] & 0xFF;
+			return (a << 24) | ((data[i + red] & 0xFF) << 16) | ((data[i + green] & 0xFF) << 8) | (data[i + blue] & 0xFF);
+		}
+
+		@Override
+		public void setRGB(int x, int y, int rgb) {
+			int i = y * scanlineStride + x * pixelStride;
+			data[i + red] = (byte) (rgb >> 16);
+			data[i + green] = (byte) (rgb >> 8);
+			data[i + blue] = (byte) rgb;
+			if (alpha >= 0)
+				data[i + alpha] = (byte) (rgb >>> 24);
+		}
+	}
+
+	private static final class Fallback extends PixelRaster {
+		private final BufferedImage img;
+
+		public Fallback(BufferedImage img) {
+			super(img);
+			this.img = img;
+		}
+
+		@Override
+		public int getRGB(int x, int y) {
+			return img.getRGB(x, y);
+		}
+
+		@Override
+		public void setRGB(int x, int y, int rgb) {
+			img.setRGB(x, y, rgb);
+		}
+	}
+}
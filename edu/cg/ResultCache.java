@@ -0,0 +1,307 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+// The output images of the image operations, addressed by the SHA-256 of the input pixels and of all the
+// parameters of the operation, so the same image processed the same way again is not computed again.
+// The memory tier keeps the most recently used outputs up to maxMemoryBytes (an image costs 4 bytes per pixel),
+// evicting the least recently used ones. With a directory, every computed output is also written there, and
+// an output evicted from memory (or computed by an earlier run) is read back from it. The disk tier keeps the
+// files up to maxDiskBytes, removing the oldest written ones; the files found in the directory when the cache
+// is created count as written then, oldest modified first.
+// The cached images are shared by all the hits on their key, so they must not be modified.
+// Two threads missing on the same key both compute the output, the cache keeps the last one.
+public class ResultCache {
+	private static final int FILE_MAGIC = 0x52534C54; // "RSLT"
+
+	private final long maxMemoryBytes;
+	private final Path directory;
+	private final long maxDiskBytes;
+	private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+	// The bytes of the files of the disk tier by key, oldest written first.
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>();
+	private long memoryBytes = 0;
+	private long diskBytes = 0;
+	private long memoryHits = 0;
+	private long diskHits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long diskEvictions = 0;
+
+	// Keeps the outputs in memory only.
+	public ResultCache(long maxMemoryBytes) {
+		this(maxMemoryBytes, null, 0);
+	}
+
+	// Keeps the outputs in memory only if directory is null.
+	public ResultCache(long maxMemoryBytes, Path directory, long maxDiskBytes) {
+		if (maxMemoryBytes < 0 || maxDiskBytes < 0)
+			throw new IllegalArgumentException("The memory and disk bytes can not be negative.");
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+				findFiles();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can not open the result cache directory.", e);
+			}
+		}
+	}
+
+	// The directory of the disk tier, or null.
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// The number of outputs evicted from the memory tier.
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// The number of files removed from the disk tier.
+	public synchronized long getDiskEvictions() {
+		return diskEvictions;
+	}
+
+	public synchronized double getHitRate() {
+		long hits = memoryHits + diskHits;
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	// Drops the outputs of the memory tier, the files of the disk tier are kept.
+	public synchronized void clear() {
+		memory.clear();
+		memoryBytes = 0;
+	}
+
+	// The key of an operation on an image. The scheme is null for the operations other than seam carving.
+	public static String key(BufferedImage img, String operation, RGBWeights rgbWeights,
+			int outWidth, int outHeight, CarvingScheme scheme) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		String parameters = operation + ";" + rgbWeights.redWeight + "," + rgbWeights.greenWeight + ","
+				+ rgbWeights.blueWeight + ";" + outWidth + "x" + outHeight + ";" + (scheme == null ? "" : scheme.name())
+				+ ";" + img.getWidth() + "x" + img.getHeight() + ";" + img.getType();
+		digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+		PixelRaster in = PixelRaster.of(img);
+		ByteBuffer row = ByteBuffer.allocate(img.getWidth() * Integer.BYTES);
+		for (int y = 0; y < img.getHeight(); y++) {
+			row.clear();
+			for (int x = 0; x < img.getWidth(); x++)
+				row.putInt(in.getRGB(x, y));
+			digest.update(row.array(), 0, row.position());
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	// The cached output of the key, or the output of compute, which is then cached.
+	public BufferedImage getOrCompute(String key, Supplier<BufferedImage> compute) {
+		BufferedImage cached = get(key);
+		if (cached != null)
+			return cached;
+		BufferedImage output = compute.get();
+		put(key, output);
+		return output;
+	}
+
+	// The cached output of the key, or null (counted as a miss).
+	public BufferedImage get(String key) {
+		synchronized (this) {
+			BufferedImage img = memory.get(key);
+			if (img != null) {
+				memoryHits++;
+				return img;
+			}
+		}
+		BufferedImage img = directory == null ? null : read(key);
+		synchronized (this) {
+			if (img == null) {
+				misses++;
+				return null;
+			}
+			diskHits++;
+			keep(key, img);
+			return img;
+		}
+	}
+
+	public void put(String key, BufferedImage img) {
+		synchronized (this) {
+			keep(key, img);
+		}
+		if (directory != null && img.getType() != BufferedImage.TYPE_CUSTOM)
+			write(key, img);
+	}
+
+	private void keep(String key, BufferedImage img) {
+		long bytes = bytes(img);
+		if (bytes > maxMemoryBytes)
+			return;
+		BufferedImage previous = memory.put(key, img);
+		if (previous != null)
+			memoryBytes -= bytes(previous);
+		memoryBytes += bytes;
+		// the iteration order of the map is the access order, least recently used first
+		Iterator<BufferedImage> eldest = memory.values().iterator();
+		while (memoryBytes > maxMemoryBytes) {
+			memoryBytes -= bytes(eldest.next());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	private static long bytes(BufferedImage img) {
+		return (long) img.getWidth() * img.getHeight() * Integer.BYTES;
+	}
+
+	//MARK: Disk tier
+	// Counts the files an earlier cache left in the directory, oldest modified first, and removes the oldest ones
+	// beyond the disk budget.
+	private void findFiles() throws IOException {
+		List<Path> found = new ArrayList<>();
+		try (Stream<Path> listed = Files.list(directory)) {
+			listed.filter(file -> file.getFileName().toString().endsWith(".img") && Files.isRegularFile(file))
+					.forEach(found::add);
+		}
+		Map<Path, Long> modified = new LinkedHashMap<>();
+		for (Path file : found)
+			modified.put(file, Files.getLastModifiedTime(file).toMillis());
+		found.sort(Comparator.comparing(modified::get));
+		synchronized (this) {
+			for (Path file : found) {
+				String name = file.getFileName().toString();
+				written(name.substring(0, name.length() - ".img".length()), Files.size(file));
+			}
+		}
+	}
+
+	// Counts the file of the key, just written, as the newest one, and removes the oldest files beyond the disk
+	// budget. A file bigger than the whole budget is removed at once.
+	private void written(String key, long bytes) {
+		Long previous = files.remove(key);
+		if (previous != null)
+			diskBytes -= previous;
+		files.put(key, bytes);
+		diskBytes += bytes;
+		Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+		while (diskBytes > maxDiskBytes) {
+			Map.Entry<String, Long> file = eldest.next();
+			try {
+				Files.deleteIfExists(directory.resolve(file.getKey() + ".img"));
+			} catch (IOException e) {
+				// a file that can not be removed is not counted anymore, the next writes keep the budget
+			}
+			diskBytes -= file.getValue();
+			eldest.remove();
+			diskEvictions++;
+		}
+	}
+
+	// A file holds the magic, the size and the type of the image, then its RGB values row by row, deflated.
+	private void write(String key, BufferedImage img) {
+		Path file = directory.resolve(key + ".img");
+		try {
+			Path temp = Files.createTempFile(directory, key, ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(img.getWidth());
+				out.writeInt(img.getHeight());
+				out.writeInt(img.getType());
+				PixelRaster in = PixelRaster.of(img);
+				for (int y = 0; y < img.getHeight(); y++)
+					for (int x = 0; x < img.getWidth(); x++)
+						out.writeInt(in.getRGB(x, y));
+			}
+			// a concurrent reader sees either no file or a complete one
+			long bytes = Files.size(temp);
+			synchronized (this) {
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				written(key, bytes);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not write the result cache file " + file + ".", e);
+		}
+	}
+
+	// The image of the key's file, or null if there is none or it can not be read.
+	private BufferedImage read(String key) {
+		Path file = directory.resolve(key + ".img");
+		if (!Files.isRegularFile(file))
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(Files.newInputStream(file))))) {
+			if (in.readInt() != FILE_MAGIC)
+				return null;
+			int width = in.readInt(), height = in.readInt(), type = in.readInt();
+			BufferedImage img = new BufferedImage(width, height, type);
+			PixelRaster out = PixelRaster.of(img);
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					out.setRGB(x, y, in.readInt());
+			return img;
+		} catch (IOException | IllegalArgumentException e) {
+			// a truncated or foreign file is a miss, the output is written again once computed
+			return null;
+		}
+	}
+}
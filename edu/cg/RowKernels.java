@@ -0,0 +1,80 @@
+package edu.cg;
+
+// The innermost loops of the gradient filter and of the carver energies, a row of grey values at a time.
+// These are the scalar kernels. When the JVM runs with --add-modules jdk.incubator.vector, get() returns the
+// Vector API kernels of VectorRowKernels instead, unless the edu.cg.vectorKernels system property is false.
+// Both compute exactly the same values, and setVectorized switches between them at runtime.
+public class RowKernels {
+	private static final RowKernels SCALAR = new RowKernels();
+	private static final RowKernels VECTOR = loadVectorKernels();
+	private static volatile RowKernels current =
+			VECTOR != null && !"false".equals(System.getProperty("edu.cg.vectorKernels")) ? VECTOR : SCALAR;
+
+	RowKernels() {
+	}
+
+	public static RowKernels get() {
+		return current;
+	}
+
+	public static boolean isVectorAvailable() {
+		return VECTOR != null;
+	}
+
+	public static boolean isVectorized() {
+		return current != SCALAR;
+	}
+
+	public static void setVectorized(boolean vectorized) {
+		if (vectorized && VECTOR == null)
+			throw new IllegalStateException("The Vector API is not available, run with --add-modules jdk.incubator.vector.");
+		current = vectorized ? VECTOR : SCALAR;
+	}
+
+	private static RowKernels loadVectorKernels() {
+		try {
+			return (RowKernels) Class.forName("edu.cg.VectorRowKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	// Writes the energies of the pixels fromX to toX (exclusive) of the row of grey values starting at index row,
+	// whose last pixel is lastX, to the energies of the row starting at index energyRow. next is the start of the
+	// row below, or of the row above for the last row. The energy of a pixel is the magnitude of its differences
+	// with the pixel to its right (to its left for the last pixel) and with the pixel below.
+	public void energies(int[] grey, int row, int next, int fromX, int toX, int lastX, double[] energies, int energyRow) {
+		for (int x = fromX; x < toX; x++)
+			energies[energyRow + x] = energy(grey, row, next, x, lastX);
+	}
+
+	// Writes the gradient magnitude pixels of the row of grey values starting at index row to out. above is the
+	// start of the row above, or -1 for the first row, where only the horizontal derivative counts and the first
+	// pixel keeps its grey value.
+	public void gradients(int[] grey, int row, int above, int width, int[] out) {
+		for (int x = 0; x < width; x++)
+			out[x] = gradient(grey, row, above, x);
+	}
+
+	static double energy(int[] grey, int row, int next, int x, int lastX) {
+		int g = grey[row + x];
+		int dx = grey[row + (x == lastX ? x - 1 : x + 1)] - g;
+		int dy = grey[next + x] - g;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	static int gradient(int[] grey, int row, int above, int x) {
+		int g = grey[row + x];
+		if (x == 0 && above < 0)
+			return 0xFF000000 | g << 16 | g << 8 | g;
+		int dx = x == 0 ? 0 : g - grey[row + x - 1];
+		int dy = above < 0 ? 0 : g - grey[above + x];
+		return gradientPixel(dx * dx + dy * dy);
+	}
+
+	// The grey pixel of the gradient magnitude, given the sum of the squared derivatives.
+	static int gradientPixel(int squares) {
+		int magnitude = (int) Math.sqrt(squares / 2.0);
+		return 0xFF000000 | magnitude << 16 | magnitude << 8 | magnitude;
+	}
+}
@@ -0,0 +1,365 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+// The order in which the seams of an image are carved, down to a minimum size, as one char per pixel and
+// direction: the index of the vertical (horizontal) seam that removes the pixel, or KEPT for the pixels no
+// seam removes. Carving one seam at a time does not depend on how many seams follow, so the first k seams of
+// the order are the seams a carver removes to reach width - k, and retargeting to any size between the minimum
+// and the original one takes a single pass over the image instead of the seam searches.
+// Both orders are computed on the original image. Retargeting only the width or only the height gives exactly
+// the image of the seams carver (with the default settings); retargeting both removes the width seams first and
+// then, in every column, the pixels the earliest horizontal seams remove, an approximation of carving both.
+// A map can be written to a file and read back (see write), and a carver takes the seams it carves first from
+// the map of its image instead of searching them (see BasicSeamsCarver.useSeamIndexMap).
+public class SeamIndexMap {
+	public static final char KEPT = Character.MAX_VALUE;
+	private static final int MAGIC = 0x5345414D; // "SEAM"
+	private static final int VERSION = 1;
+
+	public final int width;
+	public final int height;
+	public final int minWidth;
+	public final int minHeight;
+	// The checksum of the pixels and the weights the map was computed with.
+	public final int sourceChecksum;
+	private final char[] verticalOrder;
+	private final char[] horizontalOrder;
+
+	public SeamIndexMap(int width, int height, int minWidth, int minHeight, int sourceChecksum,
+			char[] verticalOrder, char[] horizontalOrder) {
+		if (minWidth < 1 || minWidth > width || minHeight < 1 || minHeight > height)
+			throw new IllegalArgumentException("The minimum size must be between 1x1 and the image size.");
+		if (width - minWidth >= KEPT || height - minHeight >= KEPT)
+			throw new IllegalArgumentException("A seam index map holds less than " + (int) KEPT + " seams per direction.");
+		if (verticalOrder.length != width * height || horizontalOrder.length != width * height)
+			throw new IllegalArgumentException("The orders must have a value per pixel.");
+		this.width = width;
+		this.height = height;
+		this.minWidth = minWidth;
+		this.minHeight = minHeight;
+		this.sourceChecksum = sourceChecksum;
+		this.verticalOrder = verticalOrder;
+		this.horizontalOrder = horizontalOrder;
+	}
+
+	public static SeamIndexMap compute(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int minWidth, int minHeight) {
+		return compute(logger, img, rgbWeights, minWidth, minHeight, CarverStore::onHeap);
+	}
+
+	// Carves the image down to minWidth with one carver and to minHeight with another, with the buffers of the
+	// given stores, recording the seams of each.
+	static SeamIndexMap compute(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int minWidth, int minHeight, Supplier<CarverStore> stores) {
+		int width = img.getWidth(), height = img.getHeight();
+		char[] verticalOrder = new char[width * height];
+		char[] horizontalOrder = new char[width * height];
+		Arrays.fill(verticalOrder, KEPT);
+		Arrays.fill(horizontalOrder, KEPT);
+		if (minWidth < width)
+			record(carve(logger, img, rgbWeights, minWidth, height, stores.get()), verticalOrder);
+		if (minHeight < height)
+			record(carve(logger, img, rgbWeights, width, minHeight, stores.get()), horizontalOrder);
+		return new SeamIndexMap(width, height, minWidth, minHeight, checksum(img, rgbWeights),
+				verticalOrder, horizontalOrder);
+	}
+
+	// The CRC32C of the pixels of the image and of the weights, which both define the seams.
+	public static int checksum(BufferedImage img, RGBWeights rgbWeights) {
+		PixelRaster in = PixelRaster.of(img);
+		ByteBuffer row = ByteBuffer.allocate(img.getWidth() * Integer.BYTES);
+		CRC32C crc = new CRC32C();
+		for (int y = 0; y < img.getHeight(); y++) {
+			row.clear();
+			for (int x = 0; x < img.getWidth(); x++)
+				row.putInt(in.getRGB(x, y));
+			crc.update(row.array(), 0, row.position());
+		}
+		row.clear();
+		row.putInt(rgbWeights.redWeight).putInt(rgbWeights.greenWeight).putInt(rgbWeights.blueWeight);
+		crc.update(row.array(), 0, row.position());
+		return (int) crc.getValue();
+	}
+
+	// Returns the original pixels of the carved seams.
+	private static List<int[]> carve(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int outWidth, int outHeight, CarverStore store) {
+		try {
+			BasicSeamsCarver carver = new BasicSeamsCarver(logger, img, outWidth, outHeight, rgbWeights, store);
+			carver.recordSeamOrigins();
+			carver.carveImage(CarvingScheme.VERTICAL_HORIZONTAL);
+			return carver.getSeamOrigins();
+		} finally {
+			store.release();
+		}
+	}
+
+	private static void record(List<int[]> seams, char[] order) {
+		for (int s = 0; s < seams.size(); s++)
+			for (int pixel : seams.get(s))
+				order[pixel] = (char) s;
+	}
+
+	// The index of the vertical seam that removes the pixel, or KEPT.
+	public char verticalOrder(int x, int y) {
+		return verticalOrder[y * width + x];
+	}
+
+	public char horizontalOrder(int x, int y) {
+		return horizontalOrder[y * width + x];
+	}
+
+	// The first count vertical seams as the carver records them: y * width + the column of the seam pixel in
+	// the image left by the seams before it.
+	int[][] verticalSeams(int count) {
+		int[][] columns = carvedSeams(verticalOrder, true, count);
+		for (int[] seam : columns)
+			for (int y = 0; y < seam.length; y++)
+				seam[y] += y * width;
+		return columns;
+	}
+
+	// The first count horizontal seams as the carver records them: the row of the seam pixel in the image left
+	// by the seams before it * width + x.
+	int[][] horizontalSeams(int count) {
+		int[][] rows = carvedSeams(horizontalOrder, false, count);
+		for (int[] seam : rows)
+			for (int x = 0; x < seam.length; x++)
+				seam[x] = seam[x] * width + x;
+		return rows;
+	}
+
+	// The positions of the first count seams of an order along every line (row of a vertical seam, column of a
+	// horizontal one), each in the line left by the seams before it. A Fenwick tree of the pixels left on the
+	// line counts the pixels before a seam pixel in log time.
+	private int[][] carvedSeams(char[] order, boolean vertical, int count) {
+		int lines = vertical ? height : width, length = vertical ? width : height;
+		int[][] seams = new int[count][lines];
+		int[] positions = new int[count];
+		int[] tree = new int[length + 1];
+		for (int line = 0; line < lines; line++) {
+			for (int pos = 0; pos < length; pos++) {
+				int s = order[vertical ? line * width + pos : pos * width + line];
+				if (s < count)
+					positions[s] = pos;
+			}
+			fillOnes(tree);
+			for (int s = 0; s < count; s++) {
+				seams[s][line] = prefixSum(tree, positions[s]);
+				add(tree, positions[s], -1);
+			}
+		}
+		return seams;
+	}
+
+	// The inverse of carvedSeams: writes the order of the seams, given as positions in the lines left by the
+	// seams before them.
+	private static void replaySeams(int[][] seams, char[] order, int width, boolean vertical, int length) {
+		int lines = seams.length == 0 ? 0 : seams[0].length;
+		int[] tree = new int[length + 1];
+		for (int line = 0; line < lines; line++) {
+			fillOnes(tree);
+			for (int s = 0; s < seams.length; s++) {
+				int pos = findNth(tree, seams[s][line]);
+				add(tree, pos, -1);
+				order[vertical ? line * width + pos : pos * width + line] = (char) s;
+			}
+		}
+	}
+
+	//MARK: Fenwick trees of the pixels left on a line, tree[i] covering the positions i - (i & -i) to i - 1
+	private static void fillOnes(int[] tree) {
+		for (int i = 1; i < tree.length; i++)
+			tree[i] = i & -i;
+	}
+
+	// The number of pixels left before pos.
+	private static int prefixSum(int[] tree, int pos) {
+		int sum = 0;
+		for (int i = pos; i > 0; i -= i & -i)
+			sum += tree[i];
+		return sum;
+	}
+
+	private static void add(int[] tree, int pos, int value) {
+		for (int i = pos + 1; i < tree.length; i += i & -i)
+			tree[i] += value;
+	}
+
+	// The position of the pixel with n pixels left before it.
+	private static int findNth(int[] tree, int n) {
+		int pos = 0;
+		for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+			if (pos + step < tree.length && tree[pos + step] <= n) {
+				pos += step;
+				n -= tree[pos];
+			}
+		}
+		return pos;
+	}
+
+	//MARK: Persistence
+	// Writes the map as: a header (magic, version, width, height, minWidth, minHeight, source checksum), the
+	// vertical then the horizontal seams, and the CRC32 of all that. A seam is the varint of its position on its
+	// first line, then the runs of its steps to the next lines (-1, 0 or 1, as seams are carved in the image
+	// left by the seams before them), each the varint of run length << 2 | step + 1. Seams are mostly runs of
+	// straight or diagonal steps, so a file usually takes well under a byte per removed pixel.
+	public void write(Path file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer header = ByteBuffer.allocate(7 * Integer.BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(minWidth).putInt(minHeight)
+				.putInt(sourceChecksum);
+		out.write(header.array());
+		writeSeams(out, carvedSeams(verticalOrder, true, width - minWidth));
+		writeSeams(out, carvedSeams(horizontalOrder, false, height - minHeight));
+		CRC32 crc = new CRC32();
+		crc.update(out.toByteArray());
+		out.write(ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array());
+		Files.write(file, out.toByteArray());
+	}
+
+	public static SeamIndexMap read(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		if (bytes.length < 8 * Integer.BYTES)
+			throw new IOException("Not a seam index map file: " + file);
+		ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytes.length - Integer.BYTES);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - Integer.BYTES);
+		if (in.getInt() != MAGIC || (int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES,
+				Integer.BYTES).getInt())
+			throw new IOException("Not a seam index map file, or a corrupted one: " + file);
+		if (in.getInt() != VERSION)
+			throw new IOException("Unsupported seam index map version: " + file);
+
+		try {
+			int width = in.getInt(), height = in.getInt(), minWidth = in.getInt(), minHeight = in.getInt();
+			int sourceChecksum = in.getInt();
+			if (minWidth < 1 || minWidth > width || minHeight < 1 || minHeight > height
+					|| width - minWidth >= KEPT || height - minHeight >= KEPT || (long) width * height > Integer.MAX_VALUE)
+				throw new IOException("Invalid seam index map size: " + file);
+			char[] verticalOrder = new char[width * height];
+			char[] horizontalOrder = new char[width * height];
+			Arrays.fill(verticalOrder, KEPT);
+			Arrays.fill(horizontalOrder, KEPT);
+			replaySeams(readSeams(in, width - minWidth, height, width, file), verticalOrder, width, true, width);
+			replaySeams(readSeams(in, height - minHeight, width, height, file), horizontalOrder, width, false, height);
+			if (in.hasRemaining())
+				throw new IOException("Trailing bytes in the seam index map: " + file);
+			return new SeamIndexMap(width, height, minWidth, minHeight, sourceChecksum, verticalOrder, horizontalOrder);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated seam index map: " + file, e);
+		}
+	}
+
+	private static void writeSeams(ByteArrayOutputStream out, int[][] seams) {
+		for (int[] seam : seams) {
+			writeVarint(out, seam[0]);
+			for (int line = 1; line < seam.length; ) {
+				int step = seam[line] - seam[line - 1];
+				int run = 1;
+				while (line + run < seam.length && seam[line + run] - seam[line + run - 1] == step)
+					run++;
+				writeVarint(out, run << 2 | step + 1);
+				line += run;
+			}
+		}
+	}
+
+	// Reads count seams of the given number of lines, the seam s being in a line of length - s pixels.
+	private static int[][] readSeams(ByteBuffer in, int count, int lines, int length, Path file) throws IOException {
+		int[][] seams = new int[count][lines];
+		for (int s = 0; s < count; s++) {
+			int[] seam = seams[s];
+			seam[0] = readVarint(in);
+			for (int line = 1; line < lines; ) {
+				int code = readVarint(in);
+				int run = code >>> 2, step = (code & 3) - 1;
+				if (run < 1 || step > 1 || run > lines - line)
+					throw new IOException("Invalid seam in the seam index map: " + file);
+				for (int end = line + run; line < end; line++)
+					seam[line] = seam[line - 1] + step;
+			}
+			for (int pos : seam)
+				if (pos < 0 || pos >= length - s)
+					throw new IOException("Invalid seam in the seam index map: " + file);
+		}
+		return seams;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Invalid varint in the seam index map.");
+	}
+
+	// Retargets the image the map was computed on to the given size, between the minimum and the original one.
+	public BufferedImage retarget(BufferedImage img, int outWidth, int outHeight) {
+		if (img.getWidth() != width || img.getHeight() != height)
+			throw new IllegalArgumentException("The image is not the size of the seam index map.");
+		if (outWidth < minWidth || outWidth > width || outHeight < minHeight || outHeight > height)
+			throw new IllegalArgumentException("Can not retarget to [" + outWidth + "][" + outHeight
+					+ "], the seam index map covers [" + minWidth + ".." + width + "][" + minHeight + ".." + height + "].");
+		int verticalSeams = width - outWidth, horizontalSeams = height - outHeight;
+
+		// the original pixel of every pixel of the image after removing the vertical seams
+		int[] origins = new int[outWidth * height];
+		for (int y = 0, i = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				if (verticalOrder[y * width + x] >= verticalSeams)
+					origins[i++] = y * width + x;
+
+		BufferedImage ans = new BufferedImage(outWidth, outHeight, img.getType());
+		PixelRaster in = PixelRaster.of(img);
+		PixelRaster out = PixelRaster.of(ans);
+		int[] counts = new int[height - minHeight + 1];
+		for (int x = 0; x < outWidth; x++) {
+			// keeps the pixels of the column whose horizontal order is above a threshold, and as many of the pixels
+			// at the threshold as the column needs, from the top
+			int threshold = 0, atThreshold = 0;
+			if (horizontalSeams > 0) {
+				Arrays.fill(counts, 0);
+				for (int y = 0; y < height; y++)
+					counts[Math.min(horizontalOrder[origins[y * outWidth + x]], counts.length - 1)]++;
+				int removed = 0;
+				while (removed + counts[threshold] < horizontalSeams)
+					removed += counts[threshold++];
+				atThreshold = horizontalSeams - removed;
+			}
+			for (int y = 0, outY = 0; y < height; y++) {
+				int origin = origins[y * outWidth + x];
+				int order = Math.min(horizontalOrder[origin], counts.length - 1);
+				if (horizontalSeams > 0 && (order < threshold || order == threshold && atThreshold-- > 0))
+					continue;
+				out.setRGB(x, outY++, in.getRGB(origin % width, origin / width));
+			}
+		}
+		return ans;
+	}
+}
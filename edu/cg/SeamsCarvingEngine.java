@@ -0,0 +1,111 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.BasicSeamsCarver.PreviewListener;
+import edu.cg.BasicSeamsCarver.ProgressListener;
+
+// A long lived seam carving service: every request gets a fresh carver, but the carvers take their working
+// buffers from the pool of the engine and give them back when the request is done. The engine can serve
+// requests from several threads at a time, each request then holding its own buffers.
+public class SeamsCarvingEngine {
+	private final CarverBufferPool pool;
+	private final long carverHeapBudget;
+	private final Path mappingDirectory;
+	private volatile boolean stagedEnlargement = false;
+
+	// Retains up to maxRetainedBytes of buffers between requests, all on the heap.
+	public SeamsCarvingEngine(long maxRetainedBytes) {
+		this(maxRetainedBytes, Long.MAX_VALUE, null);
+	}
+
+	// The buffers of a request beyond carverHeapBudget bytes are mapped from a temporary file of
+	// mappingDirectory (see CarverStore), and are not pooled.
+	public SeamsCarvingEngine(long maxRetainedBytes, long carverHeapBudget, Path mappingDirectory) {
+		pool = new CarverBufferPool(maxRetainedBytes);
+		this.carverHeapBudget = carverHeapBudget;
+		this.mappingDirectory = mappingDirectory;
+	}
+
+	public CarverBufferPool getPool() {
+		return pool;
+	}
+
+	// Lets the requests enlarge the images by more than half, see AdvancedSeamsCarver.setStagedEnlargement.
+	public void setStagedEnlargement(boolean stagedEnlargement) {
+		this.stagedEnlargement = stagedEnlargement;
+	}
+
+	// Resizes the image with AdvancedSeamsCarver.resizeWithSeamCarving.
+	public BufferedImage resize(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, CarvingScheme scheme) {
+		return resize(logger, img, outWidth, outHeight, rgbWeights, scheme, (ProgressListener) null);
+	}
+
+	// Reports the carved seams to progress (if not null), see BasicSeamsCarver.setProgressListener.
+	public BufferedImage resize(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, CarvingScheme scheme, ProgressListener progress) {
+		return resize(logger, img, outWidth, outHeight, rgbWeights, scheme, progress, null, 0);
+	}
+
+	// Also gives preview frames of the carving every previewIntervalMillis (if preview is not null), see
+	// BasicSeamsCarver.setPreviewListener.
+	public BufferedImage resize(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, CarvingScheme scheme, ProgressListener progress,
+			PreviewListener preview, long previewIntervalMillis) {
+		CarverStore store = newStore();
+		try {
+			AdvancedSeamsCarver carver = new AdvancedSeamsCarver(logger, img, outWidth, outHeight, rgbWeights, store);
+			carver.setStagedEnlargement(stagedEnlargement);
+			carver.setProgressListener(progress);
+			carver.setPreviewListener(preview, previewIntervalMillis);
+			return carver.resizeWithSeamCarving(scheme);
+		} finally {
+			store.release();
+		}
+	}
+
+	// Resizes the image taking the seams carved first from its seam index map, when the map was computed from it.
+	public BufferedImage resize(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, CarvingScheme scheme, SeamIndexMap map) {
+		CarverStore store = newStore();
+		try {
+			AdvancedSeamsCarver carver = new AdvancedSeamsCarver(logger, img, outWidth, outHeight, rgbWeights, store);
+			carver.setStagedEnlargement(stagedEnlargement);
+			carver.useSeamIndexMap(map);
+			return carver.resizeWithSeamCarving(scheme);
+		} finally {
+			store.release();
+		}
+	}
+
+	// Paints the seams that resizing the image would carve, with BasicSeamsCarver.showSeams.
+	public BufferedImage showSeams(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, boolean showVerticalSeams, int seamColorRGB) {
+		return showSeams(logger, img, outWidth, outHeight, rgbWeights, showVerticalSeams, seamColorRGB, null);
+	}
+
+	public BufferedImage showSeams(Logger logger, BufferedImage img, int outWidth, int outHeight,
+			RGBWeights rgbWeights, boolean showVerticalSeams, int seamColorRGB, ProgressListener progress) {
+		CarverStore store = newStore();
+		try {
+			BasicSeamsCarver carver = new BasicSeamsCarver(logger, img, outWidth, outHeight, rgbWeights, store);
+			carver.setProgressListener(progress);
+			return carver.showSeams(showVerticalSeams, seamColorRGB);
+		} finally {
+			store.release();
+		}
+	}
+
+	// Computes the seam index map of the image, to retarget it to any size down to minWidth x minHeight.
+	public SeamIndexMap seamIndexMap(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int minWidth, int minHeight) {
+		return SeamIndexMap.compute(logger, img, rgbWeights, minWidth, minHeight, this::newStore);
+	}
+
+	private CarverStore newStore() {
+		return new CarverStore(carverHeapBudget, mappingDirectory, pool);
+	}
+}
@@ -0,0 +1,239 @@
+package edu.cg;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+// Applies the pointwise and neighborhood operations of ImageProcessor to an image file tile by tile, for images
+// too big to be held in memory. The output is computed a row of tiles at a time: the input rows it is computed
+// from (with the row above it for the gradient, which looks at neighbor pixels) are read with the ImageReader in
+// a single strip as wide as the image, every tile of the row is computed from its region of that strip, and the
+// output strip is written to a TIFF file in place with the ImageWriter. A single read per row of tiles matters
+// for sequential formats (png, jpeg), whose JDK readers decode the image from its start for every region.
+// So about width x (tileHeight + 1) x 4 bytes are in memory for the input strip, and width x tileHeight x 4 bytes
+// for the output strip. A resizing reads the input rows its output rows come from instead, about
+// tileHeight x inHeight / outHeight of them.
+// The output equals the output of ImageProcessor on the whole image, as an int RGB image.
+public class TileStreamProcessor extends FunctioalForEachLoops {
+
+    //MARK: Fields
+    public final Logger logger;
+    public final File input;
+    public final RGBWeights rgbWeights;
+    public final int inWidth;
+    public final int inHeight;
+    public final int outWidth;
+    public final int outHeight;
+    public final int tileWidth;
+    public final int tileHeight;
+
+    @FunctionalInterface
+    private interface TileRenderer {
+        // Returns the pixels of the output tile, from (tileX, tileY) of the returned image on. The strip holds the
+        // input rows from stripY on, as wide as the input image.
+        public BufferedImage render(BufferedImage strip, int stripY, Rectangle tile, Point tileOrigin);
+    }
+
+    @FunctionalInterface
+    private interface InputRows {
+        // Returns the first (or the last) input row the output row y is computed from.
+        public int of(int y);
+    }
+
+    //MARK: Constructors
+    public TileStreamProcessor(Logger logger, File input, RGBWeights rgbWeights,
+                               int outWidth, int outHeight, int tileWidth, int tileHeight) throws IOException {
+        if (tileWidth < 2 | tileHeight < 2) {
+            throw new IllegalArgumentException("Tiles must be at least 2x2 pixels.");
+        }
+        this.logger = logger;
+        this.input = input;
+        this.rgbWeights = rgbWeights;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = reader(in);
+            try {
+                inWidth = reader.getWidth(0);
+                inHeight = reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+        this.outWidth = outWidth > 0 ? outWidth : inWidth;
+        this.outHeight = outHeight > 0 ? outHeight : inHeight;
+    }
+
+    public TileStreamProcessor(Logger logger, File input, RGBWeights rgbWeights,
+                               int tileWidth, int tileHeight) throws IOException {
+        this(logger, input, rgbWeights, 0, 0, tileWidth, tileHeight);
+    }
+
+    //MARK: Operations
+    public void greyscale(File output) throws IOException {
+        logger.log("Streaming greyscale changing...");
+        streamTiles(output, inWidth, inHeight, y -> y, y -> y, (strip, stripY, tile, origin) ->
+                processor(region(strip, stripY, tile)).greyscale());
+        logger.log("Changing greyscale done!");
+    }
+
+    public void changeHue(File output) throws IOException {
+        logger.log("Streaming hue changing...");
+        streamTiles(output, inWidth, inHeight, y -> y, y -> y, (strip, stripY, tile, origin) ->
+                processor(region(strip, stripY, tile)).changeHue());
+        logger.log("Changing hue done!");
+    }
+
+    public void gradientMagnitude(File output) throws IOException {
+        if (inHeight < 2 | inWidth < 2) {
+            throw new RuntimeException("Image too small..");
+        }
+
+        logger.log("Streaming gradient magnitude...");
+        // the derivatives look one pixel left and up, so every tile but the first ones is computed with that halo
+        streamTiles(output, inWidth, inHeight, y -> Math.max(y - 1, 0), y -> y, (strip, stripY, tile, origin) -> {
+            origin.x = tile.x > 0 ? 1 : 0;
+            origin.y = tile.y > 0 ? 1 : 0;
+            Rectangle region = new Rectangle(tile.x - origin.x, tile.y - origin.y,
+                    tile.width + origin.x, tile.height + origin.y);
+            return processor(region(strip, stripY, region)).gradientMagnitude();
+        });
+        logger.log("Calculating gradient magnitude done!");
+    }
+
+    public void nearestNeighbor(File output) throws IOException {
+        logger.log("Streaming nearest neighbor interpolation.");
+        InputRows sourceRow = y -> ImageProcessor.nearestNeighborSource(y, inHeight, outHeight);
+        streamTiles(output, outWidth, outHeight, sourceRow, sourceRow, (strip, stripY, tile, origin) -> {
+            PixelRaster in = PixelRaster.of(strip);
+            BufferedImage ans = new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_INT_RGB);
+            PixelRaster out = PixelRaster.of(ans);
+
+            setForEachParameters(tile.width, tile.height);
+            forEachPixel((y, x) -> {
+                int imgX = ImageProcessor.nearestNeighborSource(tile.x + x, inWidth, outWidth);
+                int imgY = ImageProcessor.nearestNeighborSource(tile.y + y, inHeight, outHeight);
+                out.setRGB(x, y, in.getRGB(imgX, imgY - stripY));
+            });
+            return ans;
+        });
+    }
+
+    public void bilinear(File output) throws IOException {
+        logger.log("Streaming bilinear interpolation");
+        streamTiles(output, outWidth, outHeight,
+                y -> (int) Math.floor(ImageProcessor.bilinearSource(y, inHeight, outHeight)),
+                y -> Math.min((int) Math.ceil(ImageProcessor.bilinearSource(y, inHeight, outHeight)), inHeight - 1),
+                (strip, stripY, tile, origin) -> {
+                    PixelRaster in = PixelRaster.of(strip);
+                    BufferedImage ans = new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_INT_RGB);
+                    PixelRaster out = PixelRaster.of(ans);
+
+                    setForEachParameters(tile.width, tile.height);
+                    forEachPixel((y, x) -> {
+                        float imgX = ImageProcessor.bilinearSource(tile.x + x, inWidth, outWidth);
+                        float imgY = ImageProcessor.bilinearSource(tile.y + y, inHeight, outHeight);
+                        out.setRGB(x, y, ImageProcessor.bilinearPixel(in, 0, stripY, inWidth, inHeight, imgX, imgY));
+                    });
+                    return ans;
+                });
+    }
+
+    //MARK: Streaming
+    // Writes a width x height TIFF image a row of tiles at a time. For every row, the input rows firstRow of its
+    // first row to lastRow of its last row are read in a single strip, the tiles of the row are rendered from
+    // it into a strip of the output, which is written in place once the row is done (the JDK TIFF writer
+    // replaces pixels correctly only in regions as wide as the image).
+    private void streamTiles(File output, int width, int height, InputRows firstRow, InputRows lastRow,
+                             TileRenderer renderer) throws IOException {
+        // the output stream writes over an existing file without truncating it
+        Files.deleteIfExists(output.toPath());
+        try (ImageInputStream in = ImageIO.createImageInputStream(input);
+             ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+            ImageReader reader = reader(in);
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+            try {
+                writer.setOutput(out);
+                writer.prepareWriteEmpty(null,
+                        ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB),
+                        width, height, null, null, null);
+                writer.prepareReplacePixels(0, new Rectangle(width, height));
+                ImageWriteParam param = writer.getDefaultWriteParam();
+
+                for (int y = 0; y < height; y += tileHeight) {
+                    BufferedImage strip = new BufferedImage(width, Math.min(tileHeight, height - y),
+                            BufferedImage.TYPE_INT_RGB);
+                    int stripY = firstRow.of(y);
+                    BufferedImage inputStrip = readRegion(reader, new Rectangle(0, stripY, inWidth,
+                            lastRow.of(y + strip.getHeight() - 1) - stripY + 1));
+                    for (int x = 0; x < width; x += tileWidth) {
+                        Rectangle tile = new Rectangle(x, y, Math.min(tileWidth, width - x), strip.getHeight());
+                        Point origin = new Point();
+                        BufferedImage rendered = renderer.render(inputStrip, stripY, tile, origin);
+                        strip.getRaster().setRect(x, 0, rendered.getRaster().createChild(
+                                origin.x, origin.y, tile.width, tile.height, 0, 0, null));
+                    }
+                    param.setDestinationOffset(new Point(0, y));
+                    writer.replacePixels(strip, param);
+                }
+
+                writer.endReplacePixels();
+                writer.endWriteEmpty();
+            } finally {
+                reader.dispose();
+                writer.dispose();
+            }
+        }
+    }
+
+    // A copy of a region of the input, from the strip holding the input rows from stripY on.
+    private static BufferedImage region(BufferedImage strip, int stripY, Rectangle region) {
+        BufferedImage img = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        img.getRaster().setRect(-region.x, stripY - region.y, strip.getRaster());
+        return img;
+    }
+
+    private ImageProcessor processor(BufferedImage tile) {
+        return new ImageProcessor(s -> {}, tile, rgbWeights);
+    }
+
+    private static ImageReader reader(ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("Can't read the image file.");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, false, true);
+        return reader;
+    }
+
+    // Reads a region of the input as an int RGB image, whatever the type of the input file.
+    private static BufferedImage readRegion(ImageReader reader, Rectangle region) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        BufferedImage img = reader.read(0, param);
+        if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+            return img;
+        }
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[img.getWidth()];
+        for (int y = 0; y < img.getHeight(); y++) {
+            img.getRGB(0, y, row.length, 1, row, 0, row.length);
+            rgb.setRGB(0, y, row.length, 1, row, 0, row.length);
+        }
+        return rgb;
+    }
+}
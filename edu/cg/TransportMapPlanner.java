@@ -0,0 +1,152 @@
+package edu.cg;
+
+import java.util.Arrays;
+
+import edu.cg.CarverStore.IntArray;
+
+// Finds the order of vertical and horizontal seam removals with the minimal total cost, using the transport
+// map dynamic programming: T(r, c) = min(T(r - 1, c) + cost of the best horizontal seam of state (r - 1, c),
+// T(r, c - 1) + cost of the best vertical seam of state (r, c - 1)), where state (r, c) is the image after
+// removing r horizontal and c vertical seams.
+// The map is computed on a downscaled proxy of the carved image. Only two rows of states are kept, and the
+// proxy factor is the smallest one for which these states fit the memory budget and the number of seam
+// searches stays bounded. The proxy order is then stretched to the full number of seams.
+class TransportMapPlanner {
+	// The maximal number of cost matrix cells the transport map computes.
+	private static final long WORK_BUDGET = 50_000_000L;
+	// The memory of the smallest proxy, a single pixel without seams: its two rows of one state and the scratch
+	// state. A smaller memory budget fits no proxy.
+	static final long MIN_MEMORY_BUDGET = 3 * Integer.BYTES;
+
+	private final BasicSeamsCarver carver;
+	private final long memoryBudget;
+
+	public TransportMapPlanner(BasicSeamsCarver carver, long memoryBudget) {
+		this.carver = carver;
+		this.memoryBudget = memoryBudget;
+	}
+
+	// Returns the removal order of the given numbers of seams, true standing for a vertical seam.
+	public boolean[] plan(int horizontalSeams, int verticalSeams) {
+		// beyond the larger side of the image, a larger factor gives the same single pixel proxy
+		int maxFactor = Math.max(carver.carvedWidth, carver.carvedHeight);
+		int factor = 1;
+		while (factor <= maxFactor && !fitsBudgets(factor, horizontalSeams, verticalSeams))
+			factor++;
+		int rows = 0, columns = 0;
+		if (factor <= maxFactor) {
+			rows = proxySeams(horizontalSeams, factor, (carver.carvedHeight + factor - 1) / factor);
+			columns = proxySeams(verticalSeams, factor, (carver.carvedWidth + factor - 1) / factor);
+		}
+		if (rows == 0 || columns == 0) {
+			// A single direction, an image too small for a proxy or no proxy fitting the budgets: vertical
+			// seams first.
+			boolean[] order = new boolean[horizontalSeams + verticalSeams];
+			Arrays.fill(order, 0, verticalSeams, true);
+			return order;
+		}
+
+		BasicSeamsCarver proxy = carver.createProxyCarver(factor);
+		boolean[] proxyOrder = proxyOrder(proxy, rows, columns);
+		carver.logger.log("Planned the optimal seams order on " + rows + " horizontal and " + columns
+				+ " vertical proxy seams.");
+
+		return stretch(proxyOrder, rows, columns, horizontalSeams, verticalSeams);
+	}
+
+	// The proxy states keep at least two pixels in each direction, which the energies need.
+	private static int proxySeams(int seams, int factor, int proxySize) {
+		return Math.max(Math.min((seams + factor - 1) / factor, proxySize - 2), 0);
+	}
+
+	private boolean fitsBudgets(int factor, int horizontalSeams, int verticalSeams) {
+		long width = (carver.carvedWidth + factor - 1) / factor;
+		long height = (carver.carvedHeight + factor - 1) / factor;
+		long rows = proxySeams(horizontalSeams, factor, (int) height);
+		long columns = proxySeams(verticalSeams, factor, (int) width);
+		long memory = (2 * (columns + 1) + 1) * width * height * Integer.BYTES;
+		long work = 2 * (rows + 1) * (columns + 1) * width * height;
+		return memory <= memoryBudget && work <= WORK_BUDGET;
+	}
+
+	// Fills the transport map of the proxy row by row and backtracks the removal order from its last cell.
+	private boolean[] proxyOrder(BasicSeamsCarver proxy, int rows, int columns) {
+		int width = proxy.inWidth, height = proxy.inHeight;
+		IntArray[] previousStates = new IntArray[columns + 1];
+		IntArray[] states = new IntArray[columns + 1];
+		for (int c = 0; c <= columns; c++) {
+			previousStates[c] = IntArray.wrap(new int[width * height]);
+			states[c] = IntArray.wrap(new int[width * height]);
+		}
+		IntArray scratch = IntArray.wrap(new int[width * height]);
+		double[] previousCosts = new double[columns + 1];
+		double[] costs = new double[columns + 1];
+		boolean[][] cameByVertical = new boolean[rows + 1][columns + 1];
+
+		for (int r = 0; r <= rows; r++) {
+			for (int c = 0; c <= columns; c++) {
+				if (r == 0 && c == 0) {
+					IntArray.copy(proxy.greyImgValues, 0, states[0], 0, width * height);
+					costs[0] = 0;
+					continue;
+				}
+				double horizontalCost = Double.POSITIVE_INFINITY;
+				if (r > 0) {
+					IntArray.copy(previousStates[c], 0, states[c], 0, width * height);
+					horizontalCost = previousCosts[c]
+							+ proxy.removeCheapestSeam(states[c], width - c, height - r + 1, false);
+				}
+				if (c > 0) {
+					IntArray.copy(states[c - 1], 0, scratch, 0, width * height);
+					double verticalCost = costs[c - 1]
+							+ proxy.removeCheapestSeam(scratch, width - c + 1, height - r, true);
+					if (verticalCost < horizontalCost) {
+						IntArray state = states[c];
+						states[c] = scratch;
+						scratch = state;
+						horizontalCost = verticalCost;
+						cameByVertical[r][c] = true;
+					}
+				}
+				costs[c] = horizontalCost;
+			}
+			IntArray[] swappedStates = previousStates;
+			previousStates = states;
+			states = swappedStates;
+			double[] swappedCosts = previousCosts;
+			previousCosts = costs;
+			costs = swappedCosts;
+		}
+
+		boolean[] order = new boolean[rows + columns];
+		for (int r = rows, c = columns, i = order.length - 1; i >= 0; i--) {
+			order[i] = cameByVertical[r][c];
+			if (order[i])
+				c--;
+			else
+				r--;
+		}
+		return order;
+	}
+
+	// Stretches the proxy order to the full numbers of seams, keeping the proportion of each direction
+	// removed at every point of the order.
+	private static boolean[] stretch(boolean[] proxyOrder, int rows, int columns,
+			int horizontalSeams, int verticalSeams) {
+		boolean[] order = new boolean[horizontalSeams + verticalSeams];
+		int i = 0, proxyRows = 0, proxyColumns = 0, fullRows = 0, fullColumns = 0;
+		for (boolean vertical : proxyOrder) {
+			if (vertical) {
+				int target = (int) ((long) ++proxyColumns * verticalSeams / columns);
+				for (; fullColumns < target; fullColumns++)
+					order[i++] = true;
+			}
+			else {
+				int target = (int) ((long) ++proxyRows * horizontalSeams / rows);
+				for (; fullRows < target; fullRows++)
+					order[i++] = false;
+			}
+		}
+		return order;
+	}
+}
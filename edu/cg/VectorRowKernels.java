@@ -0,0 +1,61 @@
+package edu.cg;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// The Vector API version of RowKernels, only loaded by RowKernels when the jdk.incubator.vector module is
+// available. For the energies, the grey values are loaded as int lanes and converted to double lanes for the
+// square root, so those int vectors have as many lanes as the preferred double vectors. The conversions back
+// from double lanes to int lanes are not compiled to vector instructions, so the gradients gather their pixels
+// from a table indexed by the sum of the squared derivatives instead. The edge pixels and the pixels left over
+// at the end of a row go through the scalar kernels.
+final class VectorRowKernels extends RowKernels {
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS =
+			VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+	private static final VectorSpecies<Integer> GATHERED_INTS = IntVector.SPECIES_PREFERRED;
+	// The gradient pixel of every sum of two squared derivatives of grey values.
+	private static final int[] GRADIENT_PIXELS = new int[2 * 255 * 255 + 1];
+
+	static {
+		for (int squares = 0; squares < GRADIENT_PIXELS.length; squares++) {
+			GRADIENT_PIXELS[squares] = gradientPixel(squares);
+		}
+	}
+
+	@Override
+	public void energies(int[] grey, int row, int next, int fromX, int toX, int lastX, double[] energies, int energyRow) {
+		int x = fromX;
+		// the pixels that have a right neighbor
+		for (int end = Math.min(toX, lastX), lanes = INTS.length(); x + lanes <= end; x += lanes) {
+			IntVector g = IntVector.fromArray(INTS, grey, row + x);
+			IntVector dx = IntVector.fromArray(INTS, grey, row + x + 1).sub(g);
+			IntVector dy = IntVector.fromArray(INTS, grey, next + x).sub(g);
+			DoubleVector squares = (DoubleVector) dx.mul(dx).add(dy.mul(dy)).convertShape(VectorOperators.I2D, DOUBLES, 0);
+			squares.sqrt().intoArray(energies, energyRow + x);
+		}
+		super.energies(grey, row, next, x, toX, lastX, energies, energyRow);
+	}
+
+	@Override
+	public void gradients(int[] grey, int row, int above, int width, int[] out) {
+		if (above < 0) {
+			super.gradients(grey, row, above, width, out);
+			return;
+		}
+		out[0] = gradient(grey, row, above, 0);
+		int x = 1;
+		for (int lanes = GATHERED_INTS.length(); x + lanes <= width; x += lanes) {
+			IntVector g = IntVector.fromArray(GATHERED_INTS, grey, row + x);
+			IntVector dx = g.sub(IntVector.fromArray(GATHERED_INTS, grey, row + x - 1));
+			IntVector dy = g.sub(IntVector.fromArray(GATHERED_INTS, grey, above + x));
+			dx.mul(dx).add(dy.mul(dy)).intoArray(out, x);
+			IntVector.fromArray(GATHERED_INTS, GRADIENT_PIXELS, 0, out, x).intoArray(out, x);
+		}
+		for (; x < width; x++)
+			out[x] = gradient(grey, row, above, x);
+	}
+}
@@ -0,0 +1,72 @@
+package edu.cg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// Runs the cells of one wavefront line of the seams dynamic programming (a row of the vertical cost
+// matrix or a column of the horizontal one) on a fork join pool. The cells of a line only depend on the
+// previous line, and forEachSpan returns after the whole line is done, which is the barrier between lines.
+class WavefrontExecutor {
+	// The least number of consecutive cells a single task computes, so the forking costs little next to them.
+	private static final int MIN_GRAIN = 256;
+	// The number of tasks a line is split into per worker of the pool, so the workers that finish early steal
+	// the cells of the others.
+	private static final int TASKS_PER_WORKER = 4;
+
+	@FunctionalInterface
+	public interface Span {
+		// Computes the cells [from, to) of the line.
+		public void run(int from, int to);
+	}
+
+	private final ForkJoinPool pool;
+	private final int tasks;
+
+	public WavefrontExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+		tasks = pool.getParallelism() * TASKS_PER_WORKER;
+	}
+
+	// Splits the line into spans of at least MIN_GRAIN cells, TASKS_PER_WORKER per worker. A line of a single
+	// span, and every line with a pool of one worker, runs on the calling thread.
+	public void forEachSpan(int length, Span span) {
+		int grain = Math.max(MIN_GRAIN, (length + tasks - 1) / tasks);
+		if (length <= grain || tasks == TASKS_PER_WORKER) {
+			span.run(0, length);
+			return;
+		}
+		pool.invoke(new Slice(0, length, grain, span));
+	}
+
+	public void forEachCell(int length, IntConsumer cell) {
+		forEachSpan(length, (from, to) -> {
+			for (int i = from; i < to; i++)
+				cell.accept(i);
+		});
+	}
+
+	@SuppressWarnings("serial")
+	private static class Slice extends RecursiveAction {
+		private final int from, to, grain;
+		private final Span span;
+
+		public Slice(int from, int to, int grain, Span span) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.span = span;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				span.run(from, to);
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Slice(from, middle, grain, span), new Slice(middle, to, grain, span));
+			}
+		}
+	}
+}
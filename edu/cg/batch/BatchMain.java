@@ -0,0 +1,200 @@
+package edu.cg.batch;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.Logger;
+import edu.cg.Metrics;
+import edu.cg.RGBWeights;
+import edu.cg.ResultCache;
+
+// The headless entry point: processes every image of a directory and writes the results as png files.
+public class BatchMain {
+	private static final long DEFAULT_CACHE_DISK_BYTES = 1L << 30;
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: --input <dir> --output <dir> --op <operation> [options]",
+			"  --op        greyscale | hue | gradient | nearest | bilinear | seam-carve",
+			"  --width     output width (default: the width of each image)",
+			"  --height    output height (default: the height of each image)",
+			"  --scheme    VERTICAL_HORIZONTAL | HORIZONTAL_VERTICAL | INTERMITTENT | OPTIMAL"
+					+ " (default: VERTICAL_HORIZONTAL)",
+			"  --weights   red,green,blue (default: 1,1,1)",
+			"  --threads   worker threads (default: available processors)",
+			"  --queue     images waiting for a worker (default: 2 * threads)",
+			"  --pixel-threads  threads splitting the pixel loops of every image into row bands (default: 1,"
+					+ " not for seam-carve and --tiles)",
+			"  --tiles     <width>x<height>: stream the images in tiles of that size into tif files,"
+					+ " for images too big for the heap (not for seam-carve)",
+			"  --carver-heap  MB of seam carving buffers kept on the heap per image, the rest is mapped"
+					+ " from disk (default: no limit)",
+			"  --carver-pool  MB of seam carving buffers kept for the next images (default: a quarter of"
+					+ " the max heap)",
+			"  --cache     MB of outputs kept in memory for the images processed again with the same"
+					+ " parameters (default: no cache)",
+			"  --cache-dir directory keeping the outputs for the next runs too (requires --cache)",
+			"  --cache-disk  MB of outputs kept in the cache directory, the oldest ones are removed"
+					+ " (default: 1024)",
+			"  --staged    let seam-carve enlarge the images by more than half, inserting the seams in stages",
+			"  --metrics   file the metrics of the run are written to at its end, in the Prometheus text format",
+			"  --verbose   log the messages of the image operations too");
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		Logger logger = s -> System.out.println(s);
+		try {
+			System.exit(run(args, logger) == 0 ? 0 : 1);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (Exception e) {
+			System.err.println("Batch failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	// Returns the number of images that failed.
+	public static int run(String[] args, Logger logger) throws Exception {
+		Path input = null, output = null;
+		BatchOperation op = null;
+		int width = 0, height = 0;
+		CarvingScheme scheme = CarvingScheme.VERTICAL_HORIZONTAL;
+		RGBWeights rgbWeights = new RGBWeights(1, 1, 1);
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = -1;
+		int pixelThreads = 1;
+		int tileWidth = 0, tileHeight = 0;
+		long carverHeapBudget = Long.MAX_VALUE;
+		long carverPoolBytes = -1;
+		long cacheBytes = 0;
+		Path cacheDir = null;
+		long cacheDiskBytes = -1;
+		Path metricsFile = null;
+		boolean verbose = false;
+		boolean staged = false;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--verbose")) {
+				verbose = true;
+				continue;
+			}
+			if (arg.equals("--staged")) {
+				staged = true;
+				continue;
+			}
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value of " + arg);
+			String value = args[++i];
+			switch (arg) {
+			case "--input":
+				input = Paths.get(value);
+				break;
+			case "--output":
+				output = Paths.get(value);
+				break;
+			case "--op":
+				op = BatchOperation.of(value);
+				break;
+			case "--width":
+				width = positive(arg, value);
+				break;
+			case "--height":
+				height = positive(arg, value);
+				break;
+			case "--scheme":
+				scheme = CarvingScheme.valueOf(value);
+				break;
+			case "--weights":
+				rgbWeights = weights(value);
+				break;
+			case "--threads":
+				threads = positive(arg, value);
+				break;
+			case "--queue":
+				queue = positive(arg, value);
+				break;
+			case "--pixel-threads":
+				pixelThreads = positive(arg, value);
+				break;
+			case "--carver-heap":
+				carverHeapBudget = (long) positive(arg, value) << 20;
+				break;
+			case "--carver-pool":
+				carverPoolBytes = (long) positive(arg, value) << 20;
+				break;
+			case "--cache":
+				cacheBytes = (long) positive(arg, value) << 20;
+				break;
+			case "--cache-dir":
+				cacheDir = Paths.get(value);
+				break;
+			case "--cache-disk":
+				cacheDiskBytes = (long) positive(arg, value) << 20;
+				break;
+			case "--metrics":
+				metricsFile = Paths.get(value);
+				break;
+			case "--tiles":
+				int separator = value.indexOf('x');
+				if (separator < 0)
+					throw new IllegalArgumentException("--tiles must be given as <width>x<height>: " + value);
+				tileWidth = positive(arg, value.substring(0, separator));
+				tileHeight = positive(arg, value.substring(separator + 1));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		if (input == null || output == null || op == null)
+			throw new IllegalArgumentException("--input, --output and --op are required.");
+		if (cacheDir != null && cacheBytes == 0)
+			throw new IllegalArgumentException("--cache-dir requires --cache.");
+		if (cacheDiskBytes >= 0 && cacheDir == null)
+			throw new IllegalArgumentException("--cache-disk requires --cache-dir.");
+		if (cacheBytes > 0 && tileWidth > 0)
+			throw new IllegalArgumentException("Streamed images are not cached, --cache can not be used with --tiles.");
+
+		BatchRunner runner = new BatchRunner(logger, op, rgbWeights, scheme, width, height,
+				threads, queue > 0 ? queue : 2 * threads, tileWidth, tileHeight, verbose);
+		runner.setCarverHeapBudget(carverHeapBudget);
+		runner.setStagedEnlargement(staged);
+		runner.setPixelThreads(pixelThreads);
+		if (carverPoolBytes >= 0)
+			runner.setCarverPoolBytes(carverPoolBytes);
+		if (cacheBytes > 0)
+			runner.setResultCache(new ResultCache(cacheBytes, cacheDir,
+					cacheDiskBytes >= 0 ? cacheDiskBytes : DEFAULT_CACHE_DISK_BYTES));
+		Metrics metrics = metricsFile == null ? null : new Metrics();
+		runner.setMetrics(metrics);
+		int failed = runner.run(input, output);
+		if (metrics != null) {
+			metrics.write(metricsFile);
+			logger.log("Metrics written to " + metricsFile + ".");
+		}
+		return failed;
+	}
+
+	private static int positive(String option, String value) {
+		try {
+			int n = Integer.parseInt(value);
+			if (n > 0)
+				return n;
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException(option + " must be a positive number: " + value);
+	}
+
+	private static RGBWeights weights(String value) {
+		String[] parts = value.split(",");
+		if (parts.length != 3)
+			throw new IllegalArgumentException("--weights must be given as red,green,blue: " + value);
+		try {
+			return new RGBWeights(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+					Integer.parseInt(parts[2].trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--weights must be given as red,green,blue: " + value);
+		}
+	}
+}
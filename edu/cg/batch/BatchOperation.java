@@ -0,0 +1,106 @@
+package edu.cg.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.ImageProcessor;
+import edu.cg.Logger;
+import edu.cg.RGBWeights;
+import edu.cg.ResultCache;
+import edu.cg.SeamsCarvingEngine;
+import edu.cg.TileStreamProcessor;
+
+// The operations of the menu window, as the batch runner applies them to a single image.
+public enum BatchOperation {
+	GREYSCALE("greyscale"),
+	CHANGE_HUE("hue"),
+	GRADIENT_MAGNITUDE("gradient"),
+	NEAREST_NEIGHBOR("nearest"),
+	BILINEAR("bilinear"),
+	SEAM_CARVING("seam-carve");
+
+	public final String name;
+
+	private BatchOperation(String name) {
+		this.name = name;
+	}
+
+	public static BatchOperation of(String name) {
+		for (BatchOperation op : values())
+			if (op.name.equals(name))
+				return op;
+		throw new IllegalArgumentException("Unknown operation: " + name);
+	}
+
+	// Seam carving looks at the whole image, all the other operations can be streamed in tiles.
+	public boolean streams() {
+		return this != SEAM_CARVING;
+	}
+
+	// Seam carving runs on the engine, which the images of a batch share. The other operations split their
+	// pixel loops into pixelBands row bands on pixelExecutor, or run them on the calling thread if it is null.
+	public BufferedImage apply(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int outWidth, int outHeight, CarvingScheme scheme, SeamsCarvingEngine engine,
+			Executor pixelExecutor, int pixelBands) {
+		switch (this) {
+		case GREYSCALE:
+			return processor(logger, img, rgbWeights, pixelExecutor, pixelBands).greyscale();
+		case CHANGE_HUE:
+			return processor(logger, img, rgbWeights, pixelExecutor, pixelBands).changeHue();
+		case GRADIENT_MAGNITUDE:
+			return processor(logger, img, rgbWeights, pixelExecutor, pixelBands).gradientMagnitude();
+		case NEAREST_NEIGHBOR:
+			return resizer(logger, img, rgbWeights, outWidth, outHeight, pixelExecutor, pixelBands)
+					.nearestNeighbor();
+		case BILINEAR:
+			return resizer(logger, img, rgbWeights, outWidth, outHeight, pixelExecutor, pixelBands).bilinear();
+		default: //seam carving
+			return engine.resize(logger, img, outWidth, outHeight, rgbWeights, scheme);
+		}
+	}
+
+	private static ImageProcessor processor(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			Executor pixelExecutor, int pixelBands) {
+		return resizer(logger, img, rgbWeights, img.getWidth(), img.getHeight(), pixelExecutor, pixelBands);
+	}
+
+	private static ImageProcessor resizer(Logger logger, BufferedImage img, RGBWeights rgbWeights,
+			int outWidth, int outHeight, Executor pixelExecutor, int pixelBands) {
+		ImageProcessor processor = new ImageProcessor(logger, img, rgbWeights, outWidth, outHeight);
+		processor.setForEachExecutor(pixelExecutor, pixelBands);
+		return processor;
+	}
+
+	// The result cache key of the operation, with only the parameters the operation depends on.
+	public String cacheKey(BufferedImage img, RGBWeights rgbWeights, int outWidth, int outHeight,
+			CarvingScheme scheme) {
+		boolean resizes = this == NEAREST_NEIGHBOR || this == BILINEAR || this == SEAM_CARVING;
+		return ResultCache.key(img, name, rgbWeights, resizes ? outWidth : 0, resizes ? outHeight : 0,
+				this == SEAM_CARVING ? scheme : null);
+	}
+
+	public void stream(TileStreamProcessor processor, File output) throws IOException {
+		switch (this) {
+		case GREYSCALE:
+			processor.greyscale(output);
+			break;
+		case CHANGE_HUE:
+			processor.changeHue(output);
+			break;
+		case GRADIENT_MAGNITUDE:
+			processor.gradientMagnitude(output);
+			break;
+		case NEAREST_NEIGHBOR:
+			processor.nearestNeighbor(output);
+			break;
+		case BILINEAR:
+			processor.bilinear(output);
+			break;
+		default:
+			throw new IllegalArgumentException("Seam carving can not be streamed in tiles.");
+		}
+	}
+}
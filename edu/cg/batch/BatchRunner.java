@@ -0,0 +1,278 @@
+package edu.cg.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.CarverBufferPool;
+import edu.cg.FunctioalForEachLoops;
+import edu.cg.Logger;
+import edu.cg.Metrics;
+import edu.cg.Metrics.Counter;
+import edu.cg.Metrics.Timer;
+import edu.cg.RGBWeights;
+import edu.cg.ResultCache;
+import edu.cg.SeamsCarvingEngine;
+import edu.cg.TileStreamProcessor;
+
+// Applies an operation to every image of a directory on a fixed number of worker threads.
+// The directory is listed lazily, and at most queueCapacity images wait for a worker: listing blocks until one
+// of them is taken, so a huge directory never piles up work (or decoded images) in memory.
+// Every image is read, processed and written by the same task, and its latency is reported when it is done.
+// With a tile size, the images are streamed through a TileStreamProcessor into TIFF files instead of being
+// loaded whole. The seam carving of all the images runs on one engine, so the workers reuse the carver buffers
+// of the previous images. With pixel threads, the pixel loops of an image processed in memory are split into
+// row bands, run by its worker and by a pool of pixelThreads - 1 threads the workers share. With a result
+// cache, an image already processed with the same parameters (by this run or, with a disk tier, an earlier one)
+// is not processed again.
+public class BatchRunner {
+	private final Logger logger;
+	private final BatchOperation op;
+	private final RGBWeights rgbWeights;
+	private final CarvingScheme scheme;
+	// The output size, or 0 for a dimension that keeps the size of the input image.
+	private final int outWidth, outHeight;
+	private final int threads, queueCapacity;
+	// The tile size of streamed processing, or 0 to process the images in memory.
+	private final int tileWidth, tileHeight;
+	// Logs the messages of the image operations too.
+	private final boolean verbose;
+	private long carverHeapBudget = Long.MAX_VALUE;
+	private long carverPoolBytes = Runtime.getRuntime().maxMemory() / 4;
+	private boolean stagedEnlargement = false;
+	private int pixelThreads = 1;
+	private SeamsCarvingEngine engine;
+	private ExecutorService pixelExecutor;
+	private ResultCache resultCache;
+	private Metrics metrics;
+	private Timer imageTime;
+	private Counter failures;
+
+	private final AtomicInteger processed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong pixels = new AtomicLong();
+	private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+	public BatchRunner(Logger logger, BatchOperation op, RGBWeights rgbWeights, CarvingScheme scheme,
+			int outWidth, int outHeight, int threads, int queueCapacity, int tileWidth, int tileHeight,
+			boolean verbose) {
+		if (threads < 1 || queueCapacity < 1)
+			throw new IllegalArgumentException("The number of threads and the queue capacity must be positive.");
+		if (tileWidth > 0 && !op.streams())
+			throw new IllegalArgumentException("Seam carving can not be streamed in tiles.");
+		this.logger = logger;
+		this.op = op;
+		this.rgbWeights = rgbWeights;
+		this.scheme = scheme;
+		this.outWidth = outWidth;
+		this.outHeight = outHeight;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.verbose = verbose;
+	}
+
+	// The bytes of seams carver buffers kept on the heap for every image, the rest being mapped from disk.
+	public void setCarverHeapBudget(long carverHeapBudget) {
+		this.carverHeapBudget = carverHeapBudget;
+	}
+
+	// The bytes of seams carver buffers kept between images for the next ones.
+	public void setCarverPoolBytes(long carverPoolBytes) {
+		this.carverPoolBytes = carverPoolBytes;
+	}
+
+	// Seam carving enlarges the images by more than half in stages.
+	public void setStagedEnlargement(boolean stagedEnlargement) {
+		this.stagedEnlargement = stagedEnlargement;
+	}
+
+	// The threads running the row bands of the pixel loops of an image processed in memory, 1 to run them on the
+	// worker of the image only. Seam carving and streamed images do not use them.
+	public void setPixelThreads(int pixelThreads) {
+		if (pixelThreads < 1)
+			throw new IllegalArgumentException("The number of pixel threads must be positive.");
+		this.pixelThreads = pixelThreads;
+	}
+
+	// The cache of the outputs of the images processed in memory (streamed images are not cached), or null.
+	public void setResultCache(ResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	// The metrics of the image operations and of the images, or null.
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		if (metrics != null) {
+			imageTime = metrics.timer("batch_image_seconds", "Reading, processing and writing an image");
+			failures = metrics.counter("batch_failures_total", "Images that failed");
+		}
+	}
+
+	// Returns the number of images that failed.
+	public int run(Path inputDir, Path outputDir) throws IOException, InterruptedException {
+		Files.createDirectories(outputDir);
+		engine = new SeamsCarvingEngine(carverPoolBytes, carverHeapBudget, null);
+		engine.setStagedEnlargement(stagedEnlargement);
+		pixelExecutor = pixelThreads > 1 ? FunctioalForEachLoops.fixedPoolExecutor(pixelThreads - 1) : null;
+		// The slots bound the images in flight. A worker releases its slot before it takes its next image off
+		// the queue, so the queue has room for all of them.
+		Semaphore slots = new Semaphore(threads + queueCapacity);
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(threads + queueCapacity));
+		long start = System.nanoTime();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir, Files::isRegularFile)) {
+			for (Path file : files) {
+				slots.acquire();
+				workers.execute(() -> {
+					try {
+						process(file, outputDir);
+					} finally {
+						slots.release();
+					}
+				});
+			}
+		} finally {
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			if (pixelExecutor != null)
+				pixelExecutor.shutdown();
+		}
+
+		report(System.nanoTime() - start);
+		return failed.get();
+	}
+
+	private void process(Path file, Path outputDir) {
+		long start = System.nanoTime();
+		String name = file.getFileName().toString();
+		try {
+			if (tileWidth > 0) {
+				stream(file, outputDir, name, start);
+				return;
+			}
+			BufferedImage img = ImageIO.read(file.toFile());
+			if (img == null) {
+				logger.log(name + ": skipped, not an image.");
+				return;
+			}
+			img = withStandardType(img);
+			int width = outWidth > 0 ? outWidth : img.getWidth();
+			int height = outHeight > 0 ? outHeight : img.getHeight();
+			Logger messages = verbose ? s -> logger.log(name + ": " + s) : s -> {};
+			Logger imageLogger = metrics == null ? messages : metrics.logger(messages);
+			BufferedImage input = img;
+			BufferedImage output = resultCache == null
+					? op.apply(imageLogger, input, rgbWeights, width, height, scheme, engine, pixelExecutor,
+							pixelThreads)
+					: resultCache.getOrCompute(op.cacheKey(input, rgbWeights, width, height, scheme),
+							() -> op.apply(imageLogger, input, rgbWeights, width, height, scheme, engine,
+									pixelExecutor, pixelThreads));
+			ImageIO.write(output, "png", outputDir.resolve(baseName(name) + ".png").toFile());
+
+			done(name, start, img.getWidth(), img.getHeight(), output.getWidth(), output.getHeight());
+		} catch (Exception | OutOfMemoryError e) {
+			failed.incrementAndGet();
+			if (failures != null)
+				failures.increment();
+			logger.log(name + ": failed, " + e);
+		}
+	}
+
+	private void stream(Path file, Path outputDir, String name, long start) throws IOException {
+		TileStreamProcessor processor;
+		try {
+			processor = new TileStreamProcessor(verbose ? s -> logger.log(name + ": " + s) : s -> {},
+					file.toFile(), rgbWeights, outWidth, outHeight, tileWidth, tileHeight);
+		} catch (IOException e) {
+			logger.log(name + ": skipped, not an image.");
+			return;
+		}
+		op.stream(processor, outputDir.resolve(baseName(name) + ".tif").toFile());
+		int width = op == BatchOperation.NEAREST_NEIGHBOR || op == BatchOperation.BILINEAR
+				? processor.outWidth : processor.inWidth;
+		int height = op == BatchOperation.NEAREST_NEIGHBOR || op == BatchOperation.BILINEAR
+				? processor.outHeight : processor.inHeight;
+		done(name, start, processor.inWidth, processor.inHeight, width, height);
+	}
+
+	private void done(String name, long start, int inWidth, int inHeight, int outWidth, int outHeight) {
+		long latency = System.nanoTime() - start;
+		latencies.add(latency);
+		if (imageTime != null)
+			imageTime.record(latency);
+		processed.incrementAndGet();
+		pixels.addAndGet((long) inWidth * inHeight);
+		logger.log(name + ": [" + inWidth + "][" + inHeight + "] -> ["
+				+ outWidth + "][" + outHeight + "] in " + millis(latency) + " ms");
+	}
+
+	private void report(long elapsed) {
+		double seconds = elapsed / 1e9;
+		logger.log("Processed " + processed.get() + " images (" + failed.get() + " failed) in "
+				+ String.format("%.2f", seconds) + " s: "
+				+ String.format("%.2f", processed.get() / seconds) + " images/s, "
+				+ String.format("%.2f", pixels.get() / 1e6 / seconds) + " Mpixels/s.");
+
+		List<Long> sorted = new ArrayList<>(latencies);
+		if (sorted.isEmpty())
+			return;
+		Collections.sort(sorted);
+		logger.log("Latency per image: p50 " + millis(percentile(sorted, 50)) + " ms, p95 "
+				+ millis(percentile(sorted, 95)) + " ms, max " + millis(sorted.get(sorted.size() - 1)) + " ms.");
+
+		CarverBufferPool pool = engine.getPool();
+		if (pool.getHits() + pool.getMisses() > 0)
+			logger.log("Carver buffers: " + String.format("%.1f", 100 * pool.getHitRate()) + "% reused ("
+					+ pool.getHits() + " of " + (pool.getHits() + pool.getMisses()) + "), "
+					+ (pool.getRetainedBytes() >> 20) + " MB retained, " + pool.getDropped() + " dropped.");
+
+		if (resultCache != null)
+			logger.log("Result cache: " + String.format("%.1f", 100 * resultCache.getHitRate()) + "% hits ("
+					+ resultCache.getMemoryHits() + " in memory, " + resultCache.getDiskHits() + " on disk, "
+					+ resultCache.getMisses() + " misses), " + (resultCache.getMemoryBytes() >> 20) + " MB in memory, "
+					+ resultCache.getEvictions() + " evicted"
+					+ (resultCache.getDirectory() == null ? "." : ", " + (resultCache.getDiskBytes() >> 20)
+							+ " MB on disk, " + resultCache.getDiskEvictions() + " files removed."));
+	}
+
+	private static long percentile(List<Long> sorted, int percent) {
+		return sorted.get((int) Math.ceil(percent / 100.0 * sorted.size()) - 1);
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+
+	private static String baseName(String name) {
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	// The processors create their output images with the type of the input, which must not be TYPE_CUSTOM.
+	private static BufferedImage withStandardType(BufferedImage img) {
+		if (img.getType() != BufferedImage.TYPE_CUSTOM)
+			return img;
+		BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(),
+				img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		rgb.getGraphics().drawImage(img, 0, 0, null);
+		return rgb;
+	}
+}
@@ -52,12 +52,18 @@ public class ImageWindow extends JFrame {
 		contentPane.add(panelImage, BorderLayout.CENTER);
 		
 		JButton btnSetWorkingImg = new JButton("Set as working image");
-		btnSetWorkingImg.addActionListener(e -> menuWindow.setWorkingImage(img, title));
+		btnSetWorkingImg.addActionListener(e -> menuWindow.setWorkingImage(this.img, getTitle()));
 		contentPane.add(btnSetWorkingImg, BorderLayout.SOUTH);
 		
 		pack();
 	}
 	
+	// Shows another image in the window, keeping its size, as the frames of a preview do.
+	public void setImage(BufferedImage img) {
+		this.img = img;
+		repaint();
+	}
+	
 	private class ImagePanel extends JPanel {
 		public ImagePanel() {
 			setPreferredSize(new Dimension(img.getWidth(), img.getHeight()));
@@ -65,6 +71,8 @@ public class ImageWindow extends JFrame {
 		
 		@Override
 		protected void paintComponent(Graphics g) {
+			// clears what a larger image left
+			super.paintComponent(g);
 			g.drawImage(img, 0, 0, null);
 		}
 	}
@@ -4,20 +4,30 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.GridLayout;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.function.Supplier;
 
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import edu.cg.RGBWeights;
-import edu.cg.AdvancedSeamsCarver;
+import edu.cg.BasicSeamsCarver.PreviewListener;
+import edu.cg.BasicSeamsCarver.ProgressListener;
+import edu.cg.FunctioalForEachLoops;
 import edu.cg.ImageProcessor;
 import edu.cg.Logger;
-import edu.cg.BasicSeamsCarver;
+import edu.cg.Metrics;
+import edu.cg.ResultCache;
+import edu.cg.SeamsCarvingEngine;
 import edu.cg.menu.components.ActionsController;
 import edu.cg.menu.components.CarvingSchemeSelector;
 import edu.cg.menu.components.ColorMixer;
 import edu.cg.menu.components.ImagePicker;
+import edu.cg.menu.components.JobsPanel;
 import edu.cg.menu.components.LogField;
 import edu.cg.menu.components.ScaleSelector;
 import edu.cg.menu.components.ScaleSelector.ResizingOperation;
@@ -27,8 +37,16 @@ public class MenuWindow extends JFrame implements Logger {
 	//MARK: fields
 	private static final boolean SHOWVERTICALSEAMS = true;
 	private static final boolean SHOWHORIZONTALSEAMS = false;
+	// How often the window of a seam carving job shows the image carved so far.
+	private static final long PREVIEW_INTERVAL_MILLIS = 100;
 	private BufferedImage workingImage;
 	private String imageTitle;
+	// Keeps the carver buffers of the last requests, which are usually on the same image.
+	private final SeamsCarvingEngine carvingEngine = new SeamsCarvingEngine(Runtime.getRuntime().maxMemory() / 4);
+	// Keeps the outputs of the last requests, so repeating one (or going back to earlier weights) is immediate.
+	private final ResultCache resultCache = new ResultCache(Runtime.getRuntime().maxMemory() / 8);
+	// The stage timings of all the seam carving jobs, which find them through this logger.
+	private final Metrics metrics = new Metrics();
 	
 	//MARK: GUI fields
 	private ImagePicker imagePicker;
@@ -37,6 +55,17 @@ public class MenuWindow extends JFrame implements Logger {
 	private ActionsController actionsController;
 	private LogField logField;
 	private CarvingSchemeSelector schemeSelector;
+	private JobsPanel jobsPanel;
+	
+	@FunctionalInterface
+	private static interface Operation {
+		public BufferedImage apply(BufferedImage source, ProgressListener progress);
+	}
+	
+	@FunctionalInterface
+	private static interface PreviewedOperation {
+		public BufferedImage apply(BufferedImage source, ProgressListener progress, PreviewListener preview);
+	}
 	
 	public MenuWindow() {
 		super();
@@ -56,8 +85,10 @@ public class MenuWindow extends JFrame implements Logger {
 		actionsController = new ActionsController(this);
 		logField = new LogField();
 		schemeSelector = new CarvingSchemeSelector();
+		jobsPanel = new JobsPanel(this, this);
 		
 		contentPane.add(imagePicker, BorderLayout.NORTH);
+		contentPane.add(jobsPanel, BorderLayout.SOUTH);
 		
 		JPanel panel1 = new JPanel();
 		contentPane.add(panel1, BorderLayout.CENTER);
@@ -94,26 +125,20 @@ public class MenuWindow extends JFrame implements Logger {
 		int outWidth = scaleSelector.width();
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BufferedImage img = new ImageProcessor(this,
-				duplicateImage(),
-				rgbWeights,
-				outWidth,
-				outHeight).changeHue();
-		present(img, "Change hue");
+		submit("Change hue", (source, progress) -> cached(source, "hue", rgbWeights, 0, 0, null,
+				() -> processor(source, rgbWeights, outWidth, outHeight).changeHue()));
 	}
 	
 	public void greyscale() {
-		BufferedImage img = new ImageProcessor(this,
-				duplicateImage(),
-				colorMixer.getRGBWeights()).greyscale();
-		present(img, "Grey scale");
+		RGBWeights rgbWeights = colorMixer.getRGBWeights();
+		submit("Grey scale", (source, progress) -> cached(source, "greyscale", rgbWeights, 0, 0, null,
+				() -> processor(source, rgbWeights).greyscale()));
 	}
 	
 	public void gradientMagnitude() {
-		BufferedImage img = new ImageProcessor(this,
-				duplicateImage(),
-				colorMixer.getRGBWeights()).gradientMagnitude();
-		present(img, "Gradient magnitude");
+		RGBWeights rgbWeights = colorMixer.getRGBWeights();
+		submit("Gradient magnitude", (source, progress) -> cached(source, "gradient", rgbWeights, 0, 0, null,
+				() -> processor(source, rgbWeights).gradientMagnitude()));
 	}
 	
 	public void resize() {
@@ -122,35 +147,30 @@ public class MenuWindow extends JFrame implements Logger {
 		ResizingOperation op = scaleSelector.resizingOperation();
 		edu.cg.BasicSeamsCarver.CarvingScheme scheme = schemeSelector.carvingScheme();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BufferedImage img = null;
 		String presentMessage = "Resize: " + op.title;
-		
+		Operation operation;
 
 		switch(op) {
 		case NEAREST_NEIGHBOR:
-			img = new ImageProcessor(this,
-					duplicateImage(),
-					rgbWeights,
-					outWidth,
-					outHeight).nearestNeighbor();
+			operation = (source, progress) -> cached(source, "nearest", rgbWeights, outWidth, outHeight, null,
+					() -> processor(source, rgbWeights, outWidth, outHeight).nearestNeighbor());
 			break;
 			
 		case BILINEAR:
-			img = new ImageProcessor(this,
-					duplicateImage(),
-					rgbWeights,
-					outWidth,
-					outHeight).bilinear();
+			operation = (source, progress) -> cached(source, "bilinear", rgbWeights, outWidth, outHeight, null,
+					() -> processor(source, rgbWeights, outWidth, outHeight).bilinear());
 			break;
 			
 		default: //seam carving
-			AdvancedSeamsCarver carver = new AdvancedSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-			img = carver.resizeWithSeamCarving(scheme);
-			presentMessage += ", " + scheme.description + ",";
+			presentMessage += ", " + scheme.description + ", [" + outWidth + "][" + outHeight + "]";
+			submitPreviewed(presentMessage, (source, progress, preview) -> cached(source, "seam-carve", rgbWeights,
+					outWidth, outHeight, scheme, () -> carvingEngine.resize(this, duplicateImage(source), outWidth,
+							outHeight, rgbWeights, scheme, progress, preview, PREVIEW_INTERVAL_MILLIS)));
+			return;
 		}
 		
 		presentMessage += " [" + outWidth + "][" + outHeight + "]";
-		present(img, presentMessage);
+		submit(presentMessage, operation);
 
 	}
 	
@@ -158,25 +178,79 @@ public class MenuWindow extends JFrame implements Logger {
 		int outWidth = scaleSelector.width();
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BasicSeamsCarver carver = new BasicSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-		BufferedImage verticalSeamImage = carver.showSeams(SHOWVERTICALSEAMS, Color.red.getRGB());
-		present(verticalSeamImage, "Show seams vertical");
+		submit("Show seams vertical", (source, progress) -> carvingEngine.showSeams(this, duplicateImage(source),
+				outWidth, outHeight, rgbWeights, SHOWVERTICALSEAMS, Color.red.getRGB(), progress));
 	}
 
 	public void showSeamsHorizontal() {
 		int outWidth = scaleSelector.width();
 		int outHeight = scaleSelector.height();
 		RGBWeights rgbWeights = colorMixer.getRGBWeights();
-		BasicSeamsCarver carver = new BasicSeamsCarver(this, duplicateImage(), outWidth, outHeight, rgbWeights);
-		BufferedImage horizontalSeamImage = carver.showSeams(SHOWHORIZONTALSEAMS, Color.BLACK.getRGB());
-		present(horizontalSeamImage, "Show seams horizontal");
+		submit("Show seams horizontal", (source, progress) -> carvingEngine.showSeams(this, duplicateImage(source),
+				outWidth, outHeight, rgbWeights, SHOWHORIZONTALSEAMS, Color.BLACK.getRGB(), progress));
 	}
 	
+	// Runs the operation on the current working image as a job, and presents its output once done. The
+	// parameters are read from the menu when the job is submitted, so later changes do not affect it.
+	private void submit(String title, Operation operation) {
+		BufferedImage source = workingImage;
+		String sourceTitle = imageTitle;
+		jobsPanel.submit(sourceTitle + "; " + title, progress -> operation.apply(source, progress),
+				img -> present(img, sourceTitle + "; " + title));
+	}
+	
+	// Submits an operation that gives preview frames: the first frame opens a window showing the frames as they
+	// come, so a bad choice of parameters can be seen and cancelled early. The window closes when the job ends,
+	// the output being presented in a window of its own.
+	private void submitPreviewed(String title, PreviewedOperation operation) {
+		BufferedImage source = workingImage;
+		String sourceTitle = imageTitle;
+		String jobTitle = sourceTitle + "; " + title;
+		// only touched on the event dispatch thread; a frame arriving after the job ended is dropped
+		ImageWindow[] window = new ImageWindow[1];
+		boolean[] finished = new boolean[1];
+		PreviewListener preview = (frame, carved, total) -> SwingUtilities.invokeLater(() -> {
+			if (finished[0])
+				return;
+			if (window[0] == null) {
+				window[0] = new ImageWindow(frame, jobTitle + " (preview)", this);
+				window[0].setVisible(true);
+			}
+			else
+				window[0].setImage(frame);
+		});
+		jobsPanel.submit(jobTitle, progress -> operation.apply(source, progress, preview),
+				img -> present(img, jobTitle), () -> {
+					finished[0] = true;
+					if (window[0] != null)
+						window[0].dispose();
+				});
+	}
+	
+	// The output of the operation on the image, computed unless the result cache has it. The presented
+	// images are only drawn and saved, so they can be shared with the cache.
+	private BufferedImage cached(BufferedImage source, String operation, RGBWeights rgbWeights, int outWidth,
+			int outHeight, edu.cg.BasicSeamsCarver.CarvingScheme scheme, Supplier<BufferedImage> compute) {
+		return resultCache.getOrCompute(
+				ResultCache.key(source, operation, rgbWeights, outWidth, outHeight, scheme), compute);
+	}
+
 	private void present(BufferedImage img, String title) {
 		if(img == null)
 			throw new NullPointerException("Can not present a null image.");
 		
-		new ImageWindow(img, imageTitle + "; " + title, this).setVisible(true);
+		new ImageWindow(img, title, this).setVisible(true);
+	}
+	
+	// The processors of the menu split their pixel loops into row bands on the common pool.
+	private ImageProcessor processor(BufferedImage source, RGBWeights rgbWeights, int outWidth, int outHeight) {
+		ImageProcessor processor = new ImageProcessor(this, duplicateImage(source), rgbWeights, outWidth, outHeight);
+		processor.setForEachExecutor(FunctioalForEachLoops.commonPoolExecutor());
+		return processor;
+	}
+	
+	private ImageProcessor processor(BufferedImage source, RGBWeights rgbWeights) {
+		return processor(source, rgbWeights, source.getWidth(), source.getHeight());
 	}
 	
 	private static BufferedImage duplicateImage(BufferedImage img) {
@@ -188,10 +262,6 @@ public class MenuWindow extends JFrame implements Logger {
 		return dup;
 	}
 	
-	private BufferedImage duplicateImage() {
-		return duplicateImage(workingImage);
-	}
-	
 	public void setWorkingImage(BufferedImage workingImage, String imageTitle) {
 		this.imageTitle = imageTitle;
 		this.workingImage = workingImage;
@@ -210,4 +280,22 @@ public class MenuWindow extends JFrame implements Logger {
 	public void log(String s) {
 		logField.log(s);
 	}
+	
+	@Override
+	public Metrics metrics() {
+		return metrics;
+	}
+	
+	public void saveMetrics() {
+		JFileChooser fileChooser = new JFileChooser();
+		if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		try {
+			metrics.write(fileChooser.getSelectedFile().toPath());
+			log("Metrics have been saved to " + fileChooser.getSelectedFile().getName() + ".");
+		} catch (IOException e) {
+			log("Failed to save the metrics: " + e.getMessage());
+			JOptionPane.showMessageDialog(this, "Can't save file!", "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
 }
@@ -15,6 +15,7 @@ public class CarvingSchemeSelector extends JPanel {
 	private Checkbox verticalFirst;
 	private Checkbox horizontalFirst;
 	private Checkbox intermittent;
+	private Checkbox optimal;
 	
 	public CarvingSchemeSelector() {
 		super();
@@ -29,10 +30,12 @@ public class CarvingSchemeSelector extends JPanel {
 		CheckboxGroup group = new CheckboxGroup();
 		verticalFirst = new Checkbox("Vertical first  ", group, true);
 		horizontalFirst = new Checkbox("Horizontal first  ", group, false);
-		intermittent = new Checkbox("Intermittent", group, false);
+		intermittent = new Checkbox("Intermittent  ", group, false);
+		optimal = new Checkbox("Optimal order", group, false);
 		add(verticalFirst);
 		add(horizontalFirst);
 		add(intermittent);
+		add(optimal);
 	}
 
 	public CarvingScheme carvingScheme() {
@@ -40,7 +43,9 @@ public class CarvingSchemeSelector extends JPanel {
 			return CarvingScheme.VERTICAL_HORIZONTAL;
 		else if(horizontalFirst.getState())
 			return CarvingScheme.HORIZONTAL_VERTICAL;
-		else
+		else if(intermittent.getState())
 			return CarvingScheme.INTERMITTENT;
+		else
+			return CarvingScheme.OPTIMAL;
 	}
 }
@@ -0,0 +1,133 @@
+package edu.cg.menu.components;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Window;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.border.EtchedBorder;
+
+import edu.cg.BasicSeamsCarver.ProgressListener;
+import edu.cg.Logger;
+
+// Runs the operations of the menu off the event dispatch thread, so the window stays responsive while an image
+// is carved. Every job gets a row with its progress (the carved seams, when the job reports them) and a cancel
+// button, until it is done. The jobs run on a few worker threads, the others wait in the queue of the pool.
+// Cancelling interrupts the worker thread: seam carving stops at the next seam, the other operations run to
+// their end and their output is dropped.
+@SuppressWarnings("serial")
+public class JobsPanel extends JPanel {
+	@FunctionalInterface
+	public static interface Job {
+		public BufferedImage run(ProgressListener progress);
+	}
+
+	private final Logger logger;
+	private final Component mainComponent;
+	private final ExecutorService workers;
+
+	public JobsPanel(Logger logger, Component mainComponent) {
+		super();
+		this.logger = logger;
+		this.mainComponent = mainComponent;
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "menu-job");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		setBorder(new EtchedBorder(EtchedBorder.LOWERED, null, null));
+		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+	}
+
+	// Queues the job, and gives its output to done on the event dispatch thread.
+	public void submit(String title, Job job, Consumer<BufferedImage> done) {
+		submit(title, job, done, () -> {});
+	}
+
+	// Also runs finished on the event dispatch thread once the job ends, before done and whether it succeeded,
+	// failed or was cancelled.
+	public void submit(String title, Job job, Consumer<BufferedImage> done, Runnable finished) {
+		JProgressBar progressBar = new JProgressBar();
+		progressBar.setStringPainted(true);
+		progressBar.setString(title + " (queued)");
+		JButton btnCancel = new JButton("Cancel");
+		JPanel row = new JPanel(new BorderLayout(5, 0));
+		row.add(progressBar, BorderLayout.CENTER);
+		row.add(btnCancel, BorderLayout.EAST);
+		add(row);
+		changed();
+
+		// publishes {carved, total}, or {0, 0} once the job runs
+		SwingWorker<BufferedImage, int[]> worker = new SwingWorker<BufferedImage, int[]>() {
+			@Override
+			protected BufferedImage doInBackground() {
+				publish(new int[] { 0, 0 });
+				return job.run((carved, total) -> publish(new int[] { carved, total }));
+			}
+
+			@Override
+			protected void process(List<int[]> chunks) {
+				int[] last = chunks.get(chunks.size() - 1);
+				if (last[1] == 0) {
+					progressBar.setIndeterminate(true);
+					progressBar.setString(title);
+					return;
+				}
+				progressBar.setIndeterminate(false);
+				progressBar.setMaximum(last[1]);
+				progressBar.setValue(last[0]);
+				progressBar.setString(title + ": " + last[0] + " of " + last[1] + " seams");
+			}
+
+			@Override
+			protected void done() {
+				remove(row);
+				changed();
+				finished.run();
+				if (isCancelled()) {
+					logger.log(title + " cancelled.");
+					return;
+				}
+				try {
+					done.accept(get());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof CancellationException) {
+						logger.log(title + " cancelled.");
+						return;
+					}
+					String msg = "Error in " + title + "!" + System.lineSeparator() + e.getCause().getMessage();
+					logger.log(msg);
+					JOptionPane.showMessageDialog(mainComponent, msg, "Error", JOptionPane.ERROR_MESSAGE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		btnCancel.addActionListener(e -> worker.cancel(true));
+		workers.execute(worker);
+	}
+
+	private void changed() {
+		revalidate();
+		repaint();
+		// the window grows with the rows of the jobs
+		Window window = SwingUtilities.getWindowAncestor(this);
+		if (window != null)
+			window.pack();
+	}
+}
@@ -7,6 +7,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EtchedBorder;
 
 import edu.cg.Logger;
@@ -43,7 +44,8 @@ public class LogField extends JPanel implements Logger {
 		String ss = convertTime(cal.get(Calendar.SECOND));
 		String time = "[" + hh + ":" + mm + ":" + ss + "] ~ ";
 		String msg = time + s + System.lineSeparator();
-		txtLog.append(msg);
+		// appended on the event dispatch thread, in the order of the calls, as the jobs log from their threads
+		SwingUtilities.invokeLater(() -> txtLog.append(msg));
 	}
 	
 	private static String convertTime(int t) {
@@ -0,0 +1,63 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+// The image types that store a grey pixel rounded (565, 555 and palette images) must give the outputs of the
+// original implementation, which derived the carver grey values from the greyscale image of the working type.
+// The checksums were computed by the original implementation on the same seeded images.
+public class GreyRoundingTest {
+	private static final int[] TYPES = {
+			BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_USHORT_555_RGB, BufferedImage.TYPE_BYTE_INDEXED,
+			BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB };
+	private static final CarvingScheme[] SCHEMES = {
+			CarvingScheme.VERTICAL_HORIZONTAL, CarvingScheme.HORIZONTAL_VERTICAL, CarvingScheme.INTERMITTENT };
+	// per type, the checksums of the carved images of the schemes
+	private static final long[][] CARVED = {
+			{ 4028268579L, 3230415534L, 2691128770L },
+			{ 3627316538L, 3737739555L, 620527853L },
+			{ 3616003539L, 1275531251L, 1333551144L },
+			{ 3584099637L, 4012486885L, 2791118396L },
+			{ 1002312387L, 1646585555L, 3969071190L } };
+	// per type, the checksum of the gradient magnitude image
+	private static final long[] GRADIENTS = { 688005419L, 2373476612L, 2960695697L, 2143826856L, 3433981578L };
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 2, 3);
+
+	@Test
+	public void carverGreyValuesAreTheGreenOfTheGreyscaleImage() {
+		for (int type : TYPES) {
+			BufferedImage img = TestImages.image(64, 48, type, type);
+			BufferedImage grey = new ImageProcessor(s -> {}, img, WEIGHTS).greyscale();
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, 44, 36, WEIGHTS);
+			for (int y = 0; y < img.getHeight(); y++)
+				for (int x = 0; x < img.getWidth(); x++)
+					assertEquals((grey.getRGB(x, y) >> 8) & 0xFF, carver.greyImgValues.get(y * img.getWidth() + x),
+							"type " + type + ", pixel (" + x + ", " + y + ")");
+		}
+	}
+
+	@Test
+	public void carvedImagesMatchTheOriginalImplementation() {
+		for (int t = 0; t < TYPES.length; t++) {
+			BufferedImage img = TestImages.image(64, 48, TYPES[t], TYPES[t]);
+			for (int s = 0; s < SCHEMES.length; s++)
+				assertEquals(CARVED[t][s],
+						TestImages.crc(new BasicSeamsCarver(m -> {}, img, 44, 36, WEIGHTS).carveImage(SCHEMES[s])),
+						"type " + TYPES[t] + ", " + SCHEMES[s]);
+		}
+	}
+
+	@Test
+	public void gradientsMatchTheOriginalImplementation() {
+		for (int t = 0; t < TYPES.length; t++) {
+			BufferedImage img = TestImages.image(64, 48, TYPES[t], TYPES[t]);
+			assertEquals(GRADIENTS[t], TestImages.crc(new ImageProcessor(s -> {}, img, WEIGHTS).gradientMagnitude()),
+					"type " + TYPES[t]);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package edu.cg;
+
+import static edu.cg.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+
+// The incremental energy and cost updates around the carved seams must find the seams of the full
+// recomputation, for every scheme and on both the transposed and the in place horizontal carving.
+public class IncrementalUpdatesTest {
+	private static final long[] SEEDS = { 1, 2, 3 };
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 2, 3);
+
+	@Test
+	public void carveTheSeamsOfTheFullRecomputation() {
+		for (long seed : SEEDS) {
+			BufferedImage img = TestImages.image(64, 48, BufferedImage.TYPE_INT_RGB, seed);
+			for (CarvingScheme scheme : CarvingScheme.values())
+				for (boolean transposed : new boolean[] { true, false }) {
+					String message = "seed " + seed + ", " + scheme + (transposed ? ", transposed" : ", in place");
+					assertSamePixels(carve(img, scheme, transposed, false), carve(img, scheme, transposed, true),
+							message);
+				}
+		}
+	}
+
+	private static BufferedImage carve(BufferedImage img, CarvingScheme scheme, boolean transposed,
+			boolean incremental) {
+		BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, 44, 36, WEIGHTS);
+		carver.setTransposedHorizontalCarving(transposed);
+		carver.setIncrementalUpdates(incremental);
+		return carver.carveImage(scheme);
+	}
+}
@@ -0,0 +1,82 @@
+package edu.cg;
+
+import static edu.cg.TestImages.assertSamePixels;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The disk tier of the result cache keeps its files within its byte budget, removing the oldest written ones,
+// also across the caches opened on the same directory.
+public class ResultCacheTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	public void removesTheOldestFilesBeyondTheDiskBudget() throws IOException {
+		// without a memory tier, every get reads the disk tier
+		ResultCache cache = new ResultCache(0, dir, Long.MAX_VALUE);
+		cache.put("0", TestImages.image(32, 32, BufferedImage.TYPE_INT_RGB, 0));
+		long fileBytes = directoryBytes();
+		cache = new ResultCache(0, dir, 3 * fileBytes + fileBytes / 2);
+		assertEquals(fileBytes, cache.getDiskBytes());
+
+		for (int i = 1; i < 6; i++)
+			cache.put(Integer.toString(i), TestImages.image(32, 32, BufferedImage.TYPE_INT_RGB, i));
+		assertEquals(3, fileCount());
+		assertEquals(directoryBytes(), cache.getDiskBytes());
+		assertTrue(cache.getDiskBytes() <= 3 * fileBytes + fileBytes / 2);
+		assertEquals(3, cache.getDiskEvictions());
+		for (int i = 0; i < 3; i++)
+			assertNull(cache.get(Integer.toString(i)), "image " + i);
+		for (int i = 3; i < 6; i++)
+			assertSamePixels(TestImages.image(32, 32, BufferedImage.TYPE_INT_RGB, i), cache.get(Integer.toString(i)),
+					"image " + i);
+	}
+
+	@Test
+	public void aSmallerBudgetRemovesTheFilesOfAnEarlierCache() throws IOException {
+		ResultCache cache = new ResultCache(0, dir, Long.MAX_VALUE);
+		for (int i = 0; i < 4; i++)
+			cache.put(Integer.toString(i), TestImages.image(32, 32, BufferedImage.TYPE_INT_RGB, i));
+
+		ResultCache reopened = new ResultCache(0, dir, 0);
+		assertEquals(0, reopened.getDiskBytes());
+		assertEquals(0, fileCount());
+		assertEquals(4, reopened.getDiskEvictions());
+	}
+
+	@Test
+	public void doesNotKeepAFileBiggerThanTheBudget() throws IOException {
+		ResultCache cache = new ResultCache(1 << 20, dir, 16);
+		BufferedImage img = TestImages.image(32, 32, BufferedImage.TYPE_INT_RGB, 1);
+		cache.put("big", img);
+		assertEquals(0, fileCount());
+		assertEquals(0, cache.getDiskBytes());
+		// the memory tier still has it
+		assertNotNull(cache.get("big"));
+		assertFalse(Files.exists(dir.resolve("big.img")));
+	}
+
+	private long fileCount() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+	private long directoryBytes() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+}
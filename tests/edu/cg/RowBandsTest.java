@@ -0,0 +1,92 @@
+package edu.cg;
+
+import static edu.cg.TestImages.assertSamePixels;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// The pixel loops split into row bands on an executor must give the images of the sequential loops, for the
+// operations on the input size and for the resizing ones, whose loops run on the output size.
+public class RowBandsTest {
+	private static final int[] TYPES = {
+			BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_565_RGB,
+			BufferedImage.TYPE_BYTE_INDEXED };
+	// per case, the input and the output sizes
+	private static final int[][] SIZES = { { 64, 48, 64, 48 }, { 64, 48, 101, 37 }, { 37, 53, 20, 90 } };
+	private static final int BANDS = 4;
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 2, 3);
+
+	private static ExecutorService executor;
+
+	@BeforeAll
+	public static void startExecutor() {
+		executor = FunctioalForEachLoops.fixedPoolExecutor(BANDS - 1);
+	}
+
+	@AfterAll
+	public static void stopExecutor() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void greyscale() {
+		assertSameInBands("greyscale", ImageProcessor::greyscale);
+	}
+
+	@Test
+	public void changeHue() {
+		assertSameInBands("changeHue", ImageProcessor::changeHue);
+	}
+
+	@Test
+	public void gradientMagnitude() {
+		assertSameInBands("gradientMagnitude", ImageProcessor::gradientMagnitude);
+	}
+
+	@Test
+	public void nearestNeighbor() {
+		assertSameInBands("nearestNeighbor", ImageProcessor::nearestNeighbor);
+	}
+
+	@Test
+	public void bilinear() {
+		assertSameInBands("bilinear", ImageProcessor::bilinear);
+	}
+
+	// The resizing operations push the loop parameters of the output size, and pop the ones of the input size
+	// back for the next operation of the processor.
+	@Test
+	public void resizingRestoresTheInputSize() {
+		BufferedImage img = TestImages.image(64, 48, BufferedImage.TYPE_INT_RGB, 1);
+		ImageProcessor processor = new ImageProcessor(s -> {}, img, WEIGHTS, 101, 37);
+		processor.setForEachExecutor(executor, BANDS);
+		List<Function<ImageProcessor, BufferedImage>> resizes = List.of(ImageProcessor::nearestNeighbor,
+				ImageProcessor::bilinear);
+		for (Function<ImageProcessor, BufferedImage> resize : resizes) {
+			resize.apply(processor);
+			assertEquals(64, processor.getForEachWidth());
+			assertEquals(48, processor.getForEachHeight());
+			assertSamePixels(new ImageProcessor(s -> {}, img, WEIGHTS).greyscale(), processor.greyscale(),
+					"greyscale after resizing");
+		}
+	}
+
+	private static void assertSameInBands(String name, Function<ImageProcessor, BufferedImage> operation) {
+		for (int type : TYPES)
+			for (int[] size : SIZES) {
+				BufferedImage img = TestImages.image(size[0], size[1], type, type);
+				ImageProcessor sequential = new ImageProcessor(s -> {}, img, WEIGHTS, size[2], size[3]);
+				ImageProcessor banded = new ImageProcessor(s -> {}, img, WEIGHTS, size[2], size[3]);
+				banded.setForEachExecutor(executor, BANDS);
+				assertSamePixels(operation.apply(sequential), operation.apply(banded), name + ", type " + type
+						+ ", [" + size[0] + "][" + size[1] + "] -> [" + size[2] + "][" + size[3] + "]");
+			}
+	}
+}
@@ -0,0 +1,45 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+// The seeded images of the tests, and checksums of their outputs.
+final class TestImages {
+	private TestImages() {
+	}
+
+	// Horizontal and vertical ramps with noise, so the images have both flat and busy regions.
+	static BufferedImage image(int width, int height, int type, long seed) {
+		Random random = new Random(seed);
+		BufferedImage img = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++) {
+				int red = (x * 4 + random.nextInt(40)) & 0xFF;
+				int green = (y * 5 + random.nextInt(40)) & 0xFF;
+				img.setRGB(x, y, 0xFF000000 | red << 16 | green << 8 | random.nextInt(256));
+			}
+		return img;
+	}
+
+	// The CRC32 of the default RGB ints of the image, row by row.
+	static long crc(BufferedImage img) {
+		CRC32 crc = new CRC32();
+		for (int y = 0; y < img.getHeight(); y++)
+			for (int x = 0; x < img.getWidth(); x++) {
+				int rgb = img.getRGB(x, y);
+				crc.update(new byte[] { (byte) (rgb >>> 24), (byte) (rgb >>> 16), (byte) (rgb >>> 8), (byte) rgb });
+			}
+		return crc.getValue();
+	}
+
+	static void assertSamePixels(BufferedImage expected, BufferedImage actual, String message) {
+		assertEquals(expected.getWidth(), actual.getWidth(), message + ", width");
+		assertEquals(expected.getHeight(), actual.getHeight(), message + ", height");
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), message + ", pixel (" + x + ", " + y + ")");
+	}
+}
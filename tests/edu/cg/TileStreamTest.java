@@ -0,0 +1,67 @@
+package edu.cg;
+
+import static edu.cg.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The images streamed a row of tiles at a time must equal the ones ImageProcessor computes on the whole image,
+// for tiles smaller than, cutting and covering the image, and for outputs smaller and bigger than the input.
+public class TileStreamTest {
+	// per case, the tile size
+	private static final int[][] TILES = { { 2, 2 }, { 16, 9 }, { 64, 64 }, { 500, 500 } };
+	// per case, the output size of the resizing operations
+	private static final int[][] OUTPUTS = { { 101, 37 }, { 50, 140 } };
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 2, 3);
+
+	@FunctionalInterface
+	private interface Streamed {
+		public void apply(TileStreamProcessor processor, File output) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface Whole {
+		public BufferedImage apply(ImageProcessor processor);
+	}
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void streamedImagesEqualTheWholeImageOnes() throws IOException {
+		BufferedImage img = TestImages.image(73, 61, BufferedImage.TYPE_INT_RGB, 1);
+		File input = dir.resolve("input.png").toFile();
+		ImageIO.write(img, "png", input);
+		for (int[] tile : TILES) {
+			assertSameStreamed(input, img, tile, img.getWidth(), img.getHeight(), "greyscale",
+					TileStreamProcessor::greyscale, ImageProcessor::greyscale);
+			assertSameStreamed(input, img, tile, img.getWidth(), img.getHeight(), "changeHue",
+					TileStreamProcessor::changeHue, ImageProcessor::changeHue);
+			assertSameStreamed(input, img, tile, img.getWidth(), img.getHeight(), "gradientMagnitude",
+					TileStreamProcessor::gradientMagnitude, ImageProcessor::gradientMagnitude);
+			for (int[] size : OUTPUTS) {
+				assertSameStreamed(input, img, tile, size[0], size[1], "nearestNeighbor",
+						TileStreamProcessor::nearestNeighbor, ImageProcessor::nearestNeighbor);
+				assertSameStreamed(input, img, tile, size[0], size[1], "bilinear",
+						TileStreamProcessor::bilinear, ImageProcessor::bilinear);
+			}
+		}
+	}
+
+	private void assertSameStreamed(File input, BufferedImage img, int[] tile, int outWidth, int outHeight,
+			String name, Streamed streamed, Whole whole) throws IOException {
+		File output = dir.resolve("output.tif").toFile();
+		streamed.apply(new TileStreamProcessor(s -> {}, input, WEIGHTS, outWidth, outHeight, tile[0], tile[1]),
+				output);
+		assertSamePixels(whole.apply(new ImageProcessor(s -> {}, img, WEIGHTS, outWidth, outHeight)),
+				ImageIO.read(output), name + ", tiles " + tile[0] + "x" + tile[1] + ", [" + outWidth + "]["
+						+ outHeight + "]");
+	}
+}
@@ -0,0 +1,60 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.BasicSeamsCarver.CarvingScheme;
+import edu.cg.CarverStore.IntArray;
+
+// The optimal order carving with memory budgets from too small for any proxy up to a few proxy states.
+public class TransportMapBudgetTest {
+	private static final RGBWeights WEIGHTS = new RGBWeights(1, 2, 3);
+
+	@Test
+	public void rejectsBudgetsBelowTheSmallestProxy() {
+		BufferedImage img = TestImages.image(40, 30, BufferedImage.TYPE_INT_RGB, 1);
+		for (long budget : new long[] { Long.MIN_VALUE, -1, 0, TransportMapPlanner.MIN_MEMORY_BUDGET - 1 }) {
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, 30, 20, WEIGHTS);
+			assertThrows(IllegalArgumentException.class, () -> carver.setTransportMapMemoryBudget(budget),
+					"budget " + budget);
+		}
+	}
+
+	@Test
+	public void carvesWithTinyBudgets() {
+		BufferedImage img = TestImages.image(40, 30, BufferedImage.TYPE_INT_RGB, 1);
+		for (long budget : new long[] { TransportMapPlanner.MIN_MEMORY_BUDGET, 100, 1000, 10_000 }) {
+			BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, 30, 20, WEIGHTS);
+			carver.setTransportMapMemoryBudget(budget);
+			BufferedImage carved = carver.carveImage(CarvingScheme.OPTIMAL);
+			assertEquals(30, carved.getWidth(), "budget " + budget);
+			assertEquals(20, carved.getHeight(), "budget " + budget);
+		}
+	}
+
+	@Test
+	public void removingASeamFromAStateLeavesTheCarverAlone() {
+		BufferedImage img = TestImages.image(40, 30, BufferedImage.TYPE_INT_RGB, 1);
+		BasicSeamsCarver carver = new BasicSeamsCarver(s -> {}, img, 30, 20, WEIGHTS);
+		int[] grey = new int[40 * 30], origins = new int[40 * 30];
+		IntArray.copy(carver.greyImgValues, 0, IntArray.wrap(grey), 0, grey.length);
+		IntArray.copy(carver.pixelOrigin, 0, IntArray.wrap(origins), 0, origins.length);
+		for (boolean vertical : new boolean[] { true, false }) {
+			IntArray state = IntArray.wrap(grey.clone());
+			double cost = carver.removeCheapestSeam(state, 40, 30, vertical);
+			IntArray again = IntArray.wrap(grey.clone());
+			assertEquals(cost, carver.removeCheapestSeam(again, 40, 30, vertical), "vertical " + vertical);
+			for (int i = 0; i < grey.length; i++) {
+				assertEquals(state.get(i), again.get(i), "vertical " + vertical + ", value " + i);
+				assertEquals(grey[i], carver.greyImgValues.get(i), "vertical " + vertical + ", grey " + i);
+				assertEquals(origins[i], carver.pixelOrigin.get(i), "vertical " + vertical + ", origin " + i);
+			}
+			assertEquals(40, carver.carvedWidth, "vertical " + vertical);
+			assertEquals(30, carver.carvedHeight, "vertical " + vertical);
+		}
+	}
+}